@@ -0,0 +1,88 @@
+import java.util.Random;
+
+/**
+ * Seeded inputs shared by the benchmark fixtures.
+ */
+public class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Uniformly random points inside the root tile, as {lat0, lon0, lat1, lon1, ...}.
+     */
+    public static double[] randomPoints(int count, long seed) {
+        Random random = new Random(seed);
+        double[] points = new double[2 * count];
+        for (int i = 0; i < count; i++) {
+            points[2 * i] = MapServer.ROOT_LRLAT
+                    + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+            points[2 * i + 1] = MapServer.ROOT_ULLON
+                    + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+        }
+        return points;
+    }
+
+    private static final String[] SYLLABLES = {"ba", "ber", "cal", "da", "el", "fi", "gran",
+        "ha", "ke", "ley", "lo", "ma", "mon", "na", "or", "pe", "ra", "sa", "shat", "ta", "tel",
+        "to", "va", "wood", "ya"};
+    private static final String[] KINDS = {"Street", "Avenue", "Way", "Cafe", "Park", "Hall",
+        "Market", "Library", "School", "Bakery"};
+
+    /**
+     * Seeded place names such as "Shatwood Ramon Cafe", to index many more names than a city
+     * extract has. Names repeat with a skewed distribution, as chains and long streets do.
+     */
+    public static String[] syntheticNames(int count, long seed) {
+        Random random = new Random(seed);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && random.nextInt(10) == 0) {
+                names[i] = names[(int) (i * Math.pow(random.nextDouble(), 3))];
+                continue;
+            }
+            StringBuilder name = new StringBuilder();
+            for (int word = 1 + random.nextInt(2); word > 0; word--) {
+                StringBuilder w = new StringBuilder();
+                for (int s = 2 + random.nextInt(2); s > 0; s--) {
+                    w.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                }
+                name.append(Character.toUpperCase(w.charAt(0))).append(w, 1, w.length())
+                        .append(' ');
+            }
+            names[i] = name.append(KINDS[random.nextInt(KINDS.length)]).toString();
+        }
+        return names;
+    }
+
+    /**
+     * Seeded misspellings of the given names: each has exactly typos random substitutions,
+     * insertions or deletions of a letter.
+     */
+    public static String[] misspell(String[] names, int count, int typos, long seed) {
+        Random random = new Random(seed);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder q = new StringBuilder(names[random.nextInt(names.length)]);
+            for (int t = 0; t < typos; t++) {
+                int pos = random.nextInt(q.length());
+                char c = (char) ('a' + random.nextInt(26));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        q.setCharAt(pos, c);
+                        break;
+                    case 1:
+                        q.insert(pos, c);
+                        break;
+                    default:
+                        if (q.length() > 1) {
+                            q.deleteCharAt(pos);
+                        }
+                        break;
+                }
+            }
+            queries[i] = q.toString();
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,26 @@
+import bench.GraphLoadOps;
+
+/**
+ * Loads the map data through GraphDB, which is all of MapServer's startup apart from the
+ * tile caches.
+ */
+public class GraphLoadFixture implements GraphLoadOps {
+
+    @Override
+    public int load(String osmPath, String source) {
+        if ("snapshot".equals(source)) {
+            return new GraphDB(osmPath, true).getGraph().size();
+        }
+        String previous = System.getProperty(GraphDB.PARSER_PROPERTY);
+        System.setProperty(GraphDB.PARSER_PROPERTY, source);
+        try {
+            return new GraphDB(osmPath, false).getGraph().size();
+        } finally {
+            if (previous == null) {
+                System.clearProperty(GraphDB.PARSER_PROPERTY);
+            } else {
+                System.setProperty(GraphDB.PARSER_PROPERTY, previous);
+            }
+        }
+    }
+}
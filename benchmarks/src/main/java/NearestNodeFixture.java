@@ -0,0 +1,46 @@
+import bench.NearestNodeOps;
+
+/**
+ * Compares the KdTree behind MapServer.getClosestNode against the linear scan it replaced.
+ */
+public class NearestNodeFixture implements NearestNodeOps {
+
+    private CompactGraph graph;
+    private KdTree index;
+
+    @Override
+    public void load(String osmPath) {
+        GraphDB g = new GraphDB(osmPath);
+        graph = g.getGraph();
+        index = g.getIndex();
+    }
+
+    @Override
+    public double[] randomPoints(int count, long seed) {
+        return BenchmarkData.randomPoints(count, seed);
+    }
+
+    @Override
+    public int indexed(double lat, double lon) {
+        return index.nearest(lat, lon);
+    }
+
+    @Override
+    public int[] indexed(double lat, double lon, int k) {
+        return index.nearest(lat, lon, k);
+    }
+
+    @Override
+    public int scan(double lat, double lon) {
+        double minDistance = Double.POSITIVE_INFINITY;
+        int minNode = -1;
+        for (int v = 0; v < graph.size(); v++) {
+            double currentDistance = graph.distanceTo(v, lat, lon);
+            if (currentDistance < minDistance) {
+                minDistance = currentDistance;
+                minNode = v;
+            }
+        }
+        return minNode;
+    }
+}
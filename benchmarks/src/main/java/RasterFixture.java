@@ -0,0 +1,40 @@
+import bench.RasterOps;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/**
+ * Rasters through MapServer.getMapRaster, the same pipeline /raster requests run.
+ */
+public class RasterFixture implements RasterOps {
+
+    @Override
+    public void load() {
+        MapServer.initialize();
+    }
+
+    @Override
+    public int raster(double ullat, double ullon, double lrlat, double lrlon, double w,
+                      double h) {
+        HashMap<String, Double> params = new HashMap<String, Double>();
+        params.put("ullat", ullat);
+        params.put("ullon", ullon);
+        params.put("lrlat", lrlat);
+        params.put("lrlon", lrlon);
+        params.put("w", w);
+        params.put("h", h);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MapServer.getMapRaster(params, os);
+        return os.size();
+    }
+
+    @Override
+    public void clearRasters() {
+        MapServer.getRasterCache().clear();
+    }
+
+    @Override
+    public void clearTiles() {
+        MapServer.getTileCache().clear();
+    }
+}
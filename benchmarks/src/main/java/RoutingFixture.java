@@ -0,0 +1,44 @@
+import bench.RoutingOps;
+
+/**
+ * Routes through a RoutingEngine shared by every benchmark thread, the same way concurrent
+ * /route requests share MapServer's engine.
+ */
+public class RoutingFixture implements RoutingOps {
+
+    private RoutingEngine engine;
+    private RoutingEngine.Algorithm algorithm;
+    private KdTree index;
+
+    @Override
+    public void load(String osmPath, String algorithmName) {
+        GraphDB g = new GraphDB(osmPath);
+        ContractionHierarchy hierarchy = g.getHierarchy();
+        if (hierarchy == null && "CONTRACTION_HIERARCHY".equals(algorithmName)) {
+            hierarchy = ContractionHierarchy.build(g.getGraph());
+        }
+        Landmarks landmarks = "ALT".equals(algorithmName)
+                ? Landmarks.select(g.getGraph(), Landmarks.DEFAULT_COUNT) : null;
+        engine = new RoutingEngine(g.getGraph(), g.getIndex(), hierarchy, landmarks);
+        algorithm = algorithmName == null ? engine.defaultAlgorithm()
+                : RoutingEngine.Algorithm.valueOf(algorithmName);
+        index = g.getIndex();
+    }
+
+    @Override
+    public double[] randomPairs(int count, long seed) {
+        return BenchmarkData.randomPoints(2 * count, seed);
+    }
+
+    @Override
+    public int route(double startLat, double startLon, double endLat, double endLon) {
+        return engine.route(index.nearest(startLat, startLon), index.nearest(endLat, endLon),
+                algorithm).size();
+    }
+
+    @Override
+    public double distance(double startLat, double startLon, double endLat, double endLon) {
+        return engine.distance(index.nearest(startLat, startLon), index.nearest(endLat, endLon),
+                algorithm);
+    }
+}
@@ -0,0 +1,58 @@
+import bench.SearchOps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives the PrefixIndex and NameIndex behind /search, over the OSM file's locations or over
+ * synthetic names.
+ */
+public class SearchFixture implements SearchOps {
+
+    private static final int LIMIT = PrefixIndex.TOP_K;
+
+    private String[] names;
+    private PrefixIndex prefixIndex;
+    private NameIndex nameIndex;
+
+    @Override
+    public void load(String osmPath, int syntheticNames) {
+        Locations locations;
+        if (syntheticNames > 0) {
+            String[] synthetic = BenchmarkData.syntheticNames(syntheticNames, 42);
+            List<Node> nodes = new ArrayList<Node>(synthetic.length);
+            for (int i = 0; i < synthetic.length; i++) {
+                nodes.add(new Node(i, 0, 0, synthetic[i]));
+            }
+            locations = Locations.build(nodes);
+        } else {
+            locations = new GraphDB(osmPath).getLocations();
+        }
+        names = new String[locations.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = locations.name(i);
+        }
+        prefixIndex = new PrefixIndex(locations);
+        nameIndex = new NameIndex(locations);
+    }
+
+    @Override
+    public String[] queries(int count, int typos, long seed) {
+        return BenchmarkData.misspell(names, count, typos, seed);
+    }
+
+    @Override
+    public int complete(String prefix) {
+        return prefixIndex.complete(prefix, LIMIT).size();
+    }
+
+    @Override
+    public int fuzzy(String query, int maxDistance) {
+        return prefixIndex.fuzzy(query, maxDistance, LIMIT).size();
+    }
+
+    @Override
+    public int exact(String query) {
+        return nameIndex.find(query).size();
+    }
+}
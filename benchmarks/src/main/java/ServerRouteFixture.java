@@ -0,0 +1,42 @@
+import bench.ServerRouteOps;
+
+import java.util.HashMap;
+
+/**
+ * Routes through MapServer.findAndSetRoute, the same path /route requests take: snapping both
+ * ends, the search, and the route overlay stored for the session.
+ */
+public class ServerRouteFixture implements ServerRouteOps {
+
+    private RoutingEngine.Algorithm algorithm;
+
+    @Override
+    public void load(String algorithmName) {
+        MapServer.initialize();
+        algorithm = algorithmName == null ? null : RoutingEngine.Algorithm.parse(algorithmName);
+        if (algorithm != null && !MapServer.getEngine().supports(algorithm)) {
+            throw new IllegalStateException(algorithm + " is not available for the server");
+        }
+    }
+
+    @Override
+    public double[] randomPairs(int count, long seed) {
+        return BenchmarkData.randomPoints(2 * count, seed);
+    }
+
+    @Override
+    public int findAndSetRoute(double startLat, double startLon, double endLat, double endLon) {
+        HashMap<String, Double> params = new HashMap<String, Double>();
+        params.put("start_lat", startLat);
+        params.put("start_lon", startLon);
+        params.put("end_lat", endLat);
+        params.put("end_lon", endLon);
+        return (algorithm == null ? MapServer.findAndSetRoute(params)
+                : MapServer.findAndSetRoute(params, algorithm)).size();
+    }
+
+    @Override
+    public int closestNode(double lat, double lon) {
+        return MapServer.getClosestNode(lat, lon);
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: runs JMH with the options regression tracking relies on,
+ * unless the command line sets them itself. The gc profiler is added, so every result carries
+ * its allocation rate and bytes allocated per operation, and results are written as JSON to
+ * jmh-result.json in the working directory, for comparing runs. Any other JMH options, such as
+ * a benchmark name pattern or <code>-p</code> parameter values, are passed through.
+ * <p>
+ * Run from the project root: <code>java -jar benchmarks/target/benchmarks.jar [jmh options]
+ * </code>
+ * </p>
+ */
+public class BenchmarkMain {
+
+    private static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        List<String> argv = new ArrayList<String>(Arrays.asList(args));
+        if (!hasProfiler(argv, "gc")) {
+            argv.add("-prof");
+            argv.add("gc");
+        }
+        if (!argv.contains("-rf")) {
+            argv.add("-rf");
+            argv.add("json");
+        }
+        if (!argv.contains("-rff")) {
+            argv.add("-rff");
+            argv.add(RESULT_FILE);
+        }
+        org.openjdk.jmh.Main.main(argv.toArray(new String[0]));
+    }
+
+    private static boolean hasProfiler(List<String> argv, String name) {
+        for (int i = 0; i + 1 < argv.size(); i++) {
+            if ("-prof".equals(argv.get(i)) && argv.get(i + 1).split(":")[0].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,21 @@
+package bench;
+
+/**
+ * The map server lives in the default package, which code in a named package (including the
+ * classes JMH generates) cannot import. Each benchmark therefore drives the server through an
+ * interface in this package, implemented by a fixture class in the default package that is
+ * loaded by name.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static <T> T create(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create fixture " + className, e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load the map at startup: the graph, locations, KdTree and search indexes, read from
+ * the pre-built snapshots or parsed from the XML with each of the parsers. Every load is timed
+ * on its own, since one takes long enough for a single measurement to be meaningful; the gc
+ * profiler's allocation per operation is the garbage a load leaves behind.
+ * <code>source=snapshot</code> needs the snapshots written by GraphSnapshot.main, or it
+ * measures a parallel parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GraphLoadBenchmark {
+
+    @Param("berkeley.osm")
+    public String osm;
+
+    @Param({"snapshot", "parallel", "stream", "sax"})
+    public String source;
+
+    private GraphLoadOps ops;
+
+    @Setup
+    public void setup() {
+        ops = Fixtures.create("GraphLoadFixture", GraphLoadOps.class);
+    }
+
+    @Benchmark
+    public int load() {
+        return ops.load(osm, source);
+    }
+}
@@ -0,0 +1,17 @@
+package bench;
+
+/**
+ * Operations measured by the graph load benchmark.
+ */
+public interface GraphLoadOps {
+
+    /**
+     * Loads the map data of an OSM file the way MapServer.initialize does.
+     *
+     * @param source "snapshot" to load the pre-built GraphSnapshot, Locations and hierarchy
+     *               next to the file, falling back to parsing where one is missing or stale;
+     *               otherwise the GraphDB.PARSER_PROPERTY value to parse the XML with.
+     * @return The number of nodes in the road graph.
+     */
+    int load(String osmPath, String source);
+}
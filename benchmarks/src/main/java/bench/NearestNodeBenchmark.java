@@ -0,0 +1,67 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-lookup latency of snapping a point to the road graph: the KdTree used by
+ * MapServer.getClosestNode against a linear scan over every node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestNodeBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param("berkeley.osm")
+    public String osm;
+
+    private NearestNodeOps ops;
+    private double[] points;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ops = Fixtures.create("NearestNodeFixture", NearestNodeOps.class);
+        ops.load(osm);
+        points = ops.randomPoints(POINTS, 42);
+    }
+
+    private int nextPoint() {
+        next = (next + 2) % points.length;
+        return next;
+    }
+
+    @Benchmark
+    public int kdTree() {
+        int i = nextPoint();
+        return ops.indexed(points[i], points[i + 1]);
+    }
+
+    @Benchmark
+    public int[] kdTreeEightNearest() {
+        int i = nextPoint();
+        return ops.indexed(points[i], points[i + 1], 8);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int i = nextPoint();
+        return ops.scan(points[i], points[i + 1]);
+    }
+}
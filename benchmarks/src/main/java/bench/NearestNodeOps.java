@@ -0,0 +1,20 @@
+package bench;
+
+/**
+ * Operations measured by NearestNodeBenchmark.
+ */
+public interface NearestNodeOps {
+
+    void load(String osmPath);
+
+    /**
+     * Seeded query points inside the map bounds, as {lat0, lon0, lat1, lon1, ...}.
+     */
+    double[] randomPoints(int count, long seed);
+
+    int indexed(double lat, double lon);
+
+    int[] indexed(double lat, double lon, int k);
+
+    int scan(double lat, double lon);
+}
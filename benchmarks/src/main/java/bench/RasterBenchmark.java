@@ -0,0 +1,88 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of rastering through getMapRaster against zoom level and viewport size. At
+ * <code>zoom=0</code> the query box is the root tile, so a viewport width of 256 &times; 2^d
+ * pixels selects the 4^d tiles at depth d. Each further zoom level halves the box around the
+ * map's center, which selects tiles one level deeper for the same viewport, down to the
+ * deepest tiles. The finished-raster cache is cleared before every call so each one stitches
+ * and encodes; with <code>tiles=cold</code> the decoded-tile cache is cleared too and every
+ * tile is read and decoded again. Run from a directory holding berkeley.osm and the img/
+ * tiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RasterBenchmark {
+
+    private static final double ROOT_ULLAT = 37.892195547244356;
+    private static final double ROOT_ULLON = -122.2998046875;
+    private static final double ROOT_LRLAT = 37.82280243352756;
+    private static final double ROOT_LRLON = -122.2119140625;
+
+    /**
+     * Viewport width in pixels: 256, 512, 1024, 2048 and 4096 stitch 1, 4, 16, 64 and 256 tiles.
+     */
+    @Param({"256", "512", "1024", "2048", "4096"})
+    public int width;
+
+    /**
+     * Halvings of the root tile's width and height in the query box.
+     */
+    @Param({"0", "3"})
+    public int zoom;
+
+    @Param({"warm", "cold"})
+    public String tiles;
+
+    private RasterOps ops;
+    private double ullat;
+    private double ullon;
+    private double lrlat;
+    private double lrlon;
+
+    @Setup
+    public void setup() {
+        ops = Fixtures.create("RasterFixture", RasterOps.class);
+        ops.load();
+        double halfHeight = (ROOT_ULLAT - ROOT_LRLAT) / 2 / (1 << zoom);
+        double halfWidth = (ROOT_LRLON - ROOT_ULLON) / 2 / (1 << zoom);
+        double centerLat = (ROOT_ULLAT + ROOT_LRLAT) / 2;
+        double centerLon = (ROOT_ULLON + ROOT_LRLON) / 2;
+        ullat = centerLat + halfHeight;
+        ullon = centerLon - halfWidth;
+        lrlat = centerLat - halfHeight;
+        lrlon = centerLon + halfWidth;
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCaches() {
+        ops.clearRasters();
+        if ("cold".equals(tiles)) {
+            ops.clearTiles();
+        }
+    }
+
+    @Benchmark
+    public int raster() {
+        return ops.raster(ullat, ullon, lrlat, lrlon, width, width);
+    }
+}
@@ -0,0 +1,29 @@
+package bench;
+
+/**
+ * Operations measured by the raster benchmarks.
+ */
+public interface RasterOps {
+
+    /**
+     * Initializes the map server; the working directory must hold its OSM file and img/ tiles.
+     */
+    void load();
+
+    /**
+     * Rasters the query box for a viewport of the given size, as a /raster request does.
+     *
+     * @return The size of the encoded PNG in bytes.
+     */
+    int raster(double ullat, double ullon, double lrlat, double lrlon, double w, double h);
+
+    /**
+     * Forgets every finished raster, so the next request stitches and encodes again.
+     */
+    void clearRasters();
+
+    /**
+     * Forgets every decoded tile, so the next request reads and decodes them from disk again.
+     */
+    void clearTiles();
+}
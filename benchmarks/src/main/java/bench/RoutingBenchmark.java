@@ -0,0 +1,66 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single route query over seeded random origin/destination pairs, for each
+ * routing algorithm. A hierarchy is built in setup when none is stored next to the OSM file.
+ * The gc profiler, on by default in BenchmarkMain, checks allocation: distance() should report
+ * no allocation per operation, and route() only the returned LinkedList.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    private static final int PAIRS = 256;
+
+    @Param("berkeley.osm")
+    public String osm;
+
+    @Param({"ASTAR", "BIDIRECTIONAL_ASTAR", "ALT", "CONTRACTION_HIERARCHY"})
+    public String algorithm;
+
+    private RoutingOps ops;
+    private double[] pairs;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ops = Fixtures.create("RoutingFixture", RoutingOps.class);
+        ops.load(osm, algorithm);
+        pairs = ops.randomPairs(PAIRS, 42);
+    }
+
+    private int nextPair() {
+        next = (next + 4) % pairs.length;
+        return next;
+    }
+
+    @Benchmark
+    public int route() {
+        int i = nextPair();
+        return ops.route(pairs[i], pairs[i + 1], pairs[i + 2], pairs[i + 3]);
+    }
+
+    @Benchmark
+    public double distance() {
+        int i = nextPair();
+        return ops.distance(pairs[i], pairs[i + 1], pairs[i + 2], pairs[i + 3]);
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test for concurrent routing. For each thread count from 1 up to the number
+ * of cores, every thread routes seeded random origin/destination pairs through one shared
+ * engine for a fixed time, and the aggregate throughput is reported together with its
+ * speedup over a single thread. With no shared mutable state in the engine the speedup should
+ * track the thread count until the cores run out.
+ * <p>
+ * Run from the project root: <code>java -cp benchmarks/target/benchmarks.jar
+ * bench.RoutingLoadTest [osm] [seconds per step]</code>
+ * </p>
+ */
+public class RoutingLoadTest {
+
+    private static final int PAIRS = 4096;
+
+    public static void main(String[] args) throws InterruptedException {
+        String osm = args.length > 0 ? args[0] : "berkeley.osm";
+        long millis = 1000L * (args.length > 1 ? Integer.parseInt(args[1]) : 5);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        RoutingOps ops = Fixtures.create("RoutingFixture", RoutingOps.class);
+        ops.load(osm, null);
+        double[] pairs = ops.randomPairs(PAIRS, 42);
+
+        /* Warm up the JIT before taking any measurements. */
+        run(ops, pairs, cores, millis);
+
+        System.out.printf("%8s %14s %8s%n", "threads", "routes/s", "speedup");
+        double base = 0;
+        for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1
+                : Math.min(2 * threads, cores)) {
+            double throughput = run(ops, pairs, threads, millis);
+            if (threads == 1) {
+                base = throughput;
+            }
+            System.out.printf("%8d %14.1f %8.2f%n", threads, throughput, throughput / base);
+        }
+    }
+
+    private static double run(RoutingOps ops, double[] pairs, int threads, long millis)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong completed = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t * 4 * (PAIRS / threads);
+            workers[t] = new Thread(() -> {
+                long count = 0;
+                int i = offset;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (running.get()) {
+                    ops.route(pairs[i], pairs[i + 1], pairs[i + 2], pairs[i + 3]);
+                    i = (i + 4) % pairs.length;
+                    count++;
+                }
+                completed.addAndGet(count);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread w : workers) {
+            w.join();
+        }
+        return completed.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
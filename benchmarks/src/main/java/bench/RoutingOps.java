@@ -0,0 +1,31 @@
+package bench;
+
+/**
+ * Operations measured by the routing benchmarks.
+ */
+public interface RoutingOps {
+
+    /**
+     * @param algorithm Name of a RoutingEngine.Algorithm, or null for the engine's default.
+     */
+    void load(String osmPath, String algorithm);
+
+    /**
+     * Seeded origin/destination pairs inside the map bounds, as
+     * {startLat0, startLon0, endLat0, endLon0, startLat1, ...}.
+     */
+    double[] randomPairs(int count, long seed);
+
+    /**
+     * Routes between the nodes closest to the two points.
+     *
+     * @return The number of nodes on the route.
+     */
+    int route(double startLat, double startLon, double endLat, double endLon);
+
+    /**
+     * Length of the shortest route between the nodes closest to the two points, without
+     * building the route itself.
+     */
+    double distance(double startLat, double startLon, double endLat, double endLon);
+}
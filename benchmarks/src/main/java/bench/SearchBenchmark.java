@@ -0,0 +1,84 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of /search lookups: prefix completion, exact names, and fuzzy matches
+ * within one and two edits of names misspelled by as many typos. Sample-time mode reports the
+ * p50, p90, p99 and p99.9 of each. <code>names=osm</code> indexes the locations in the OSM
+ * file; a number indexes that many synthetic names instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int PREFIX_LENGTH = 4;
+
+    @Param("berkeley.osm")
+    public String osm;
+
+    @Param({"osm", "300000"})
+    public String names;
+
+    private SearchOps ops;
+    private String[] exact;
+    private String[] prefixes;
+    private String[] oneTypo;
+    private String[] twoTypos;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ops = Fixtures.create("SearchFixture", SearchOps.class);
+        ops.load(osm, "osm".equals(names) ? 0 : Integer.parseInt(names));
+        exact = ops.queries(QUERIES, 0, 42);
+        prefixes = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            prefixes[i] = exact[i].substring(0, Math.min(PREFIX_LENGTH, exact[i].length()));
+        }
+        oneTypo = ops.queries(QUERIES, 1, 43);
+        twoTypos = ops.queries(QUERIES, 2, 44);
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    @Benchmark
+    public int prefix() {
+        return ops.complete(prefixes[nextQuery()]);
+    }
+
+    @Benchmark
+    public int exact() {
+        return ops.exact(exact[nextQuery()]);
+    }
+
+    @Benchmark
+    public int fuzzyOneEdit() {
+        return ops.fuzzy(oneTypo[nextQuery()], 1);
+    }
+
+    @Benchmark
+    public int fuzzyTwoEdits() {
+        return ops.fuzzy(twoTypos[nextQuery()], 2);
+    }
+}
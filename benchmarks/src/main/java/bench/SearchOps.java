@@ -0,0 +1,39 @@
+package bench;
+
+/**
+ * Operations measured by SearchBenchmark.
+ */
+public interface SearchOps {
+
+    /**
+     * Indexes the named locations of the OSM file, or, if syntheticNames is positive, that
+     * many seeded synthetic names instead.
+     */
+    void load(String osmPath, int syntheticNames);
+
+    /**
+     * Seeded queries drawn from the indexed names, each misspelled by exactly typos edits.
+     */
+    String[] queries(int count, int typos, long seed);
+
+    /**
+     * Autocompletes prefix as /search?term= does.
+     *
+     * @return The number of names found.
+     */
+    int complete(String prefix);
+
+    /**
+     * Finds the names within maxDistance edits of query as /search?fuzzy= does.
+     *
+     * @return The number of names found.
+     */
+    int fuzzy(String query, int maxDistance);
+
+    /**
+     * Looks up the locations named query as /search?full= does.
+     *
+     * @return The number of locations found.
+     */
+    int exact(String query);
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the public MapServer routing API over fixed seeded origin/destination pairs:
+ * findAndSetRoute, which adds snapping, the route overlay and the session update to the search
+ * RoutingBenchmark measures, and getClosestNode on its own. <code>algorithm=default</code>
+ * routes with whatever the server would pick; the contraction hierarchy is only available
+ * when one is stored next to berkeley.osm. Run from a directory holding berkeley.osm and the
+ * img/ tiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerRouteBenchmark {
+
+    private static final int PAIRS = 256;
+
+    @Param({"default", "ASTAR", "BIDIRECTIONAL_ASTAR", "ALT"})
+    public String algorithm;
+
+    private ServerRouteOps ops;
+    private double[] pairs;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ops = Fixtures.create("ServerRouteFixture", ServerRouteOps.class);
+        ops.load("default".equals(algorithm) ? null : algorithm);
+        pairs = ops.randomPairs(PAIRS, 42);
+    }
+
+    private int nextPair() {
+        next = (next + 4) % pairs.length;
+        return next;
+    }
+
+    @Benchmark
+    public int findAndSetRoute() {
+        int i = nextPair();
+        return ops.findAndSetRoute(pairs[i], pairs[i + 1], pairs[i + 2], pairs[i + 3]);
+    }
+
+    @Benchmark
+    public int getClosestNode() {
+        int i = nextPair();
+        return ops.closestNode(pairs[i], pairs[i + 1]);
+    }
+}
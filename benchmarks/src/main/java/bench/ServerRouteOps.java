@@ -0,0 +1,34 @@
+package bench;
+
+/**
+ * Operations measured by the server routing benchmark.
+ */
+public interface ServerRouteOps {
+
+    /**
+     * Initializes the map server; the working directory must hold its OSM file and img/ tiles.
+     *
+     * @param algorithm Name of a RoutingEngine.Algorithm, or null for the server's default.
+     */
+    void load(String algorithm);
+
+    /**
+     * Seeded origin/destination pairs inside the map bounds, as
+     * {startLat0, startLon0, endLat0, endLon0, startLat1, ...}.
+     */
+    double[] randomPairs(int count, long seed);
+
+    /**
+     * Finds and sets the route between the two points, as a /route request does.
+     *
+     * @return The number of nodes on the route.
+     */
+    int findAndSetRoute(double startLat, double startLon, double endLat, double endLon);
+
+    /**
+     * Snaps a point to the road graph, as a /route request does for each end.
+     *
+     * @return The index of the closest node.
+     */
+    int closestNode(double lat, double lon);
+}
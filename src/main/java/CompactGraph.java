@@ -0,0 +1,229 @@
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Immutable road graph stored in compressed sparse row (CSR) form. Every node is identified by
+ * a dense int index in [0, size()); its OSM id, latitude and longitude live in parallel
+ * primitive arrays, and the neighbors of node v are neighbors[offsets[v]] up to (but not
+ * including) neighbors[offsets[v + 1]].
+ * Node indices are assigned in ascending OSM id order, so an OSM id can be mapped back to its
+ * index with a binary search instead of a hash lookup.
+ * The arrays are held as NIO buffers so that a graph can either wrap heap arrays or read
+ * straight out of a memory-mapped GraphSnapshot file.
+ */
+public class CompactGraph {
+
+    private final LongBuffer ids;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+    private final IntBuffer offsets;
+    private final IntBuffer neighbors;
+
+    CompactGraph(long[] ids, double[] lats, double[] lons, int[] offsets, int[] neighbors) {
+        this(LongBuffer.wrap(ids), DoubleBuffer.wrap(lats), DoubleBuffer.wrap(lons),
+                IntBuffer.wrap(offsets), IntBuffer.wrap(neighbors));
+    }
+
+    CompactGraph(LongBuffer ids, DoubleBuffer lats, DoubleBuffer lons, IntBuffer offsets,
+                 IntBuffer neighbors) {
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+    }
+
+    /**
+     * Builds the CSR graph out of the parsed nodes and their connections. Only nodes that
+     * appear in <code>ways</code> are kept, and edges pointing at nodes that were never
+     * parsed are dropped.
+     *
+     * @param nodes Parsed nodes keyed by their String id.
+     * @param ways  Adjacency between node ids.
+     * @return The compact graph.
+     */
+    public static CompactGraph build(Map<String, Node> nodes, Connection ways) {
+        ArrayList<Node> kept = new ArrayList<Node>();
+        for (Node n : nodes.values()) {
+            if (ways.contains(String.valueOf(n.getId()))) {
+                kept.add(n);
+            }
+        }
+        int n = kept.size();
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = kept.get(i).getId();
+        }
+        Arrays.sort(ids);
+
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        int[] offsets = new int[n + 1];
+        int[][] rows = new int[n][];
+        int edges = 0;
+        for (int i = 0; i < n; i++) {
+            String key = String.valueOf(ids[i]);
+            Node node = nodes.get(key);
+            lats[i] = node.getLat();
+            lons[i] = node.getLon();
+
+            HashSet<String> adjacent = ways.get(key);
+            int[] row = new int[adjacent.size()];
+            int degree = 0;
+            for (String other : adjacent) {
+                int index = Arrays.binarySearch(ids, Long.parseLong(other));
+                if (index >= 0) {
+                    row[degree++] = index;
+                }
+            }
+            row = Arrays.copyOf(row, degree);
+            Arrays.sort(row);
+            rows[i] = row;
+            edges += degree;
+        }
+
+        int[] neighbors = new int[edges];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + rows[i].length;
+            System.arraycopy(rows[i], 0, neighbors, offsets[i], rows[i].length);
+        }
+        return new CompactGraph(ids, lats, lons, offsets, neighbors);
+    }
+
+    /**
+     * Number of nodes in the graph.
+     */
+    public int size() {
+        return ids.limit();
+    }
+
+    /**
+     * Number of directed edges in the graph; every road segment is counted in both directions.
+     */
+    public int edgeCount() {
+        return neighbors.limit();
+    }
+
+    public long id(int v) {
+        return ids.get(v);
+    }
+
+    public double lat(int v) {
+        return lats.get(v);
+    }
+
+    public double lon(int v) {
+        return lons.get(v);
+    }
+
+    /**
+     * Maps an OSM id to its node index.
+     *
+     * @param id OSM node id.
+     * @return The node index, or -1 if the id is not in the graph.
+     */
+    public int indexOf(long id) {
+        int lo = 0;
+        int hi = ids.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = ids.get(mid);
+            if (midId < id) {
+                lo = mid + 1;
+            } else if (midId > id) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index into the neighbor array of the first edge leaving v.
+     */
+    public int firstEdge(int v) {
+        return offsets.get(v);
+    }
+
+    /**
+     * Index into the neighbor array one past the last edge leaving v.
+     */
+    public int endEdge(int v) {
+        return offsets.get(v + 1);
+    }
+
+    /**
+     * The node at the head of edge e.
+     */
+    public int target(int e) {
+        return neighbors.get(e);
+    }
+
+    public int degree(int v) {
+        return offsets.get(v + 1) - offsets.get(v);
+    }
+
+    /**
+     * Euclidean distance between nodes a and b in (lon, lat) space.
+     */
+    public double distance(int a, int b) {
+        double xDist = lons.get(b) - lons.get(a);
+        double yDist = lats.get(b) - lats.get(a);
+        return Math.sqrt(xDist * xDist + yDist * yDist);
+    }
+
+    /**
+     * Euclidean distance between node v and the point (lon, lat).
+     */
+    public double distanceTo(int v, double lat, double lon) {
+        double xDist = lons.get(v) - lon;
+        double yDist = lats.get(v) - lat;
+        return Math.sqrt(xDist * xDist + yDist * yDist);
+    }
+
+    /**
+     * Hash of the node ids, coordinates and adjacency, used to tie data derived from this
+     * graph (such as a ContractionHierarchy) to the exact graph it was computed from.
+     */
+    public long fingerprint() {
+        long h = size() * 31L + edgeCount();
+        for (int v = 0; v < size(); v++) {
+            h = h * 1000003L ^ ids.get(v);
+            h = h * 1000003L ^ Double.doubleToLongBits(lats.get(v));
+            h = h * 1000003L ^ Double.doubleToLongBits(lons.get(v));
+            h = h * 1000003L ^ offsets.get(v + 1);
+        }
+        for (int e = 0; e < edgeCount(); e++) {
+            h = h * 1000003L ^ neighbors.get(e);
+        }
+        return h;
+    }
+
+    /* Raw views used by GraphSnapshot; callers must not modify them. */
+
+    LongBuffer ids() {
+        return ids.duplicate();
+    }
+
+    DoubleBuffer lats() {
+        return lats.duplicate();
+    }
+
+    DoubleBuffer lons() {
+        return lons.duplicate();
+    }
+
+    IntBuffer offsets() {
+        return offsets.duplicate();
+    }
+
+    IntBuffer neighbors() {
+        return neighbors.duplicate();
+    }
+}
@@ -0,0 +1,624 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Contraction Hierarchy over a CompactGraph, for routing queries that settle a few hundred
+ * nodes instead of tens of thousands.
+ * <p>
+ * Preprocessing contracts nodes one at a time in order of importance (edge difference plus
+ * the number of already contracted neighbors). Contracting v removes it from the remaining
+ * graph and adds a shortcut u-w through v for each pair of neighbors whose shortest
+ * connection runs through v, as decided by a bounded witness search. The result is the
+ * upward graph: for each node, the edges to neighbors contracted after it, each either an
+ * original road segment or a shortcut remembering the node it bypasses.
+ * </p>
+ * <p>
+ * A query runs Dijkstra upward from both ends and meets at the highest node of the shortest
+ * route; shortcuts are then unpacked back into road segments. Because roads are undirected
+ * here, one upward graph serves both directions.
+ * </p>
+ * Build the hierarchy offline with <code>java ContractionHierarchy berkeley.osm</code>; it is
+ * stored next to the OSM file and tied to the graph it was built from by a fingerprint.
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x424D4348;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final String SUFFIX = ".ch";
+
+    private final CompactGraph graph;
+    private final int[] rank;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] middles;
+    private final double[] weights;
+    private final ThreadLocal<Query> queries;
+
+    private ContractionHierarchy(CompactGraph graph, int[] rank, int[] offsets, int[] targets,
+                                 int[] middles, double[] weights) {
+        this.graph = graph;
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.middles = middles;
+        this.weights = weights;
+        this.queries = ThreadLocal.withInitial(() -> new Query(graph.size()));
+    }
+
+    /**
+     * The hierarchy path used for a given OSM file.
+     */
+    public static File fileFor(String osmPath) {
+        return new File(osmPath + SUFFIX);
+    }
+
+    /**
+     * Number of edges in the upward graph, shortcuts included.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Contracts every node of the graph.
+     */
+    public static ContractionHierarchy build(CompactGraph graph) {
+        return new Contractor(graph).run();
+    }
+
+    /**
+     * Finds the shortest route between two nodes.
+     *
+     * @return The OSM ids of the nodes on the route, from start to end, or an empty list if
+     * the end cannot be reached.
+     */
+    public LinkedList<Long> route(int start, int end) {
+        Query q = queries.get();
+        LinkedList<Long> path = new LinkedList<Long>();
+        int meet = q.search(start, end);
+        if (meet < 0) {
+            return path;
+        }
+
+        /* Walk the forward tree down to start, then unpack every edge from start to end. */
+        int[] chain = q.chain;
+        int length = 0;
+        for (int v = meet; v != -1; v = q.forward.prev[v]) {
+            chain = push(chain, length++, v);
+        }
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            int tmp = chain[i];
+            chain[i] = chain[j];
+            chain[j] = tmp;
+        }
+        for (int v = q.backward.prev[meet]; v != -1; v = q.backward.prev[v]) {
+            chain = push(chain, length++, v);
+        }
+        q.chain = chain;
+
+        path.add(graph.id(chain[0]));
+        for (int i = 1; i < length; i++) {
+            unpack(q, chain[i - 1], chain[i], path);
+        }
+        return path;
+    }
+
+    /**
+     * Length of the shortest route between two nodes.
+     *
+     * @return The route length, or Double.POSITIVE_INFINITY if the end cannot be reached.
+     */
+    public double distance(int start, int end) {
+        Query q = queries.get();
+        return q.search(start, end) < 0 ? Double.POSITIVE_INFINITY : q.best;
+    }
+
+    /**
+     * Nodes settled by the last query this thread ran, in both directions.
+     */
+    public int lastSettled() {
+        Query q = queries.get();
+        return q.forward.heap.polls() + q.backward.heap.polls();
+    }
+
+    /**
+     * The most nodes waiting in the heaps of the last query this thread ran, the peaks of the
+     * two directions added.
+     */
+    public int lastPeakFringe() {
+        Query q = queries.get();
+        return q.forward.heap.peakSize() + q.backward.heap.peakSize();
+    }
+
+    /**
+     * Appends the road nodes after a up to and including b, expanding shortcuts.
+     */
+    private void unpack(Query q, int a, int b, LinkedList<Long> path) {
+        int[] stack = q.stack;
+        int top = 0;
+        stack = push(stack, top++, a);
+        stack = push(stack, top++, b);
+        while (top > 0) {
+            int y = stack[--top];
+            int x = stack[--top];
+            int mid = middleOf(x, y);
+            if (mid < 0) {
+                path.add(graph.id(y));
+            } else {
+                /* Pushed in reverse so that x-mid is expanded before mid-y. */
+                stack = push(stack, top++, mid);
+                stack = push(stack, top++, y);
+                stack = push(stack, top++, x);
+                stack = push(stack, top++, mid);
+            }
+        }
+        q.stack = stack;
+    }
+
+    private int middleOf(int a, int b) {
+        int low = rank[a] < rank[b] ? a : b;
+        int high = low == a ? b : a;
+        for (int e = offsets[low]; e < offsets[low + 1]; e++) {
+            if (targets[e] == high) {
+                return middles[e];
+            }
+        }
+        throw new IllegalStateException("No hierarchy edge between " + a + " and " + b);
+    }
+
+    private static int[] push(int[] stack, int i, int v) {
+        if (i == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[i] = v;
+        return stack;
+    }
+
+    /**
+     * Per-thread state for bidirectional upward searches.
+     */
+    private class Query {
+        private final Side forward;
+        private final Side backward;
+        private int[] chain = new int[64];
+        private int[] stack = new int[64];
+        private double best;
+
+        Query(int n) {
+            forward = new Side(n);
+            backward = new Side(n);
+        }
+
+        /**
+         * Runs both upward searches until neither can improve on the best meeting point.
+         *
+         * @return The node where the shortest route peaks, or -1 if end is unreachable.
+         */
+        int search(int start, int end) {
+            forward.reset(start);
+            backward.reset(end);
+            best = Double.POSITIVE_INFINITY;
+            int meet = -1;
+            while (true) {
+                boolean f = !forward.heap.isEmpty() && forward.heap.peekKey() < best;
+                boolean b = !backward.heap.isEmpty() && backward.heap.peekKey() < best;
+                if (!f && !b) {
+                    return meet;
+                }
+                Side side = forward;
+                Side other = backward;
+                if (!f || b && backward.heap.peekKey() < forward.heap.peekKey()) {
+                    side = backward;
+                    other = forward;
+                }
+                int v = side.heap.poll();
+                if (other.reached(v) && side.dist[v] + other.dist[v] < best) {
+                    best = side.dist[v] + other.dist[v];
+                    meet = v;
+                }
+                side.relax(v);
+            }
+        }
+    }
+
+    /**
+     * One direction of a query: stamped distances and predecessors plus a heap.
+     */
+    private class Side {
+        private final double[] dist;
+        private final int[] prev;
+        private final int[] stamp;
+        private final IndexedMinHeap heap;
+        private int generation;
+
+        Side(int n) {
+            dist = new double[n];
+            prev = new int[n];
+            stamp = new int[n];
+            heap = new IndexedMinHeap(n);
+        }
+
+        void reset(int source) {
+            generation++;
+            if (generation == 0) {
+                Arrays.fill(stamp, 0);
+                generation = 1;
+            }
+            heap.clear();
+            stamp[source] = generation;
+            dist[source] = 0.0;
+            prev[source] = -1;
+            heap.add(source, 0.0);
+        }
+
+        boolean reached(int v) {
+            return stamp[v] == generation;
+        }
+
+        void relax(int v) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                double d = dist[v] + weights[e];
+                if (!reached(w)) {
+                    stamp[w] = generation;
+                    dist[w] = d;
+                    prev[w] = v;
+                    heap.add(w, d);
+                } else if (d < dist[w] && heap.contains(w)) {
+                    dist[w] = d;
+                    prev[w] = v;
+                    heap.decreaseKey(w, d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the hierarchy to <code>file</code>, renaming it into place once complete.
+     * <pre>
+     * int    magic            "BMCH"
+     * int    version
+     * long   CompactGraph fingerprint
+     * int    node count n
+     * int    upward edge count m
+     * double[m] weights
+     * int[n]    rank
+     * int[n+1]  offsets
+     * int[m]    targets
+     * int[m]    middles (-1 for road segments)
+     * </pre>
+     */
+    public void write(File file) throws IOException {
+        int n = rank.length;
+        int m = targets.length;
+        long bytes = HEADER_BYTES + 8L * m + 4L * n + 4L * (n + 1) + 8L * m;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = out.getChannel()) {
+            out.setLength(bytes);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            buf.putLong(graph.fingerprint());
+            buf.putInt(n);
+            buf.putInt(m);
+            buf.asDoubleBuffer().put(weights);
+            buf.position(buf.position() + 8 * m);
+            buf.asIntBuffer().put(rank).put(offsets).put(targets).put(middles);
+            buf.force();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Could not move " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Loads the hierarchy stored in <code>file</code>.
+     *
+     * @return The hierarchy, or null if the file is missing, of another version, or was built
+     * from a different graph.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public static ContractionHierarchy load(File file, CompactGraph graph) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != graph.fingerprint()) {
+                return null;
+            }
+            int n = buf.getInt();
+            int m = buf.getInt();
+            if (n != graph.size() || size != HEADER_BYTES + 16L * m + 4L * (2 * n + 1)) {
+                return null;
+            }
+            double[] weights = new double[m];
+            buf.asDoubleBuffer().get(weights);
+            buf.position(buf.position() + 8 * m);
+            int[] rank = new int[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[m];
+            int[] middles = new int[m];
+            buf.asIntBuffer().get(rank).get(offsets).get(targets).get(middles);
+            return new ContractionHierarchy(graph, rank, offsets, targets, middles, weights);
+        }
+    }
+
+    /**
+     * Preprocessing state. Each uncontracted node keeps growable arrays of its edges to other
+     * uncontracted nodes; contracting a node freezes its current edges as its upward edges.
+     */
+    private static class Contractor {
+        /**
+         * Witness searches give up after settling this many nodes and assume no witness, which
+         * can only add unnecessary shortcuts, never lose a shortest route. Priorities are only
+         * estimates, so the searches that compute them are cut off much earlier.
+         */
+        private static final int WITNESS_SETTLE_LIMIT = 200;
+        private static final int SIMULATED_WITNESS_SETTLE_LIMIT = 20;
+
+        private final CompactGraph graph;
+        private final int n;
+        private final int[][] adjTo;
+        private final double[][] adjWeight;
+        private final int[][] adjMid;
+        private final int[] degree;
+        private final int[] contractedNeighbors;
+        private final int[] rank;
+
+        private final int[][] upTo;
+        private final double[][] upWeight;
+        private final int[][] upMid;
+
+        private final IndexedMinHeap witnessHeap;
+        private final double[] witnessDist;
+        private final int[] witnessStamp;
+        private int witnessGeneration;
+
+        Contractor(CompactGraph graph) {
+            this.graph = graph;
+            n = graph.size();
+            adjTo = new int[n][];
+            adjWeight = new double[n][];
+            adjMid = new int[n][];
+            degree = new int[n];
+            contractedNeighbors = new int[n];
+            rank = new int[n];
+            upTo = new int[n][];
+            upWeight = new double[n][];
+            upMid = new int[n][];
+            witnessHeap = new IndexedMinHeap(n);
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+
+            for (int v = 0; v < n; v++) {
+                int d = graph.degree(v);
+                adjTo[v] = new int[Math.max(d, 1)];
+                adjWeight[v] = new double[Math.max(d, 1)];
+                adjMid[v] = new int[Math.max(d, 1)];
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    int w = graph.target(e);
+                    if (w != v) {
+                        adjTo[v][degree[v]] = w;
+                        adjWeight[v][degree[v]] = graph.distance(v, w);
+                        adjMid[v][degree[v]] = -1;
+                        degree[v]++;
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy run() {
+            IndexedMinHeap order = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                order.add(v, priority(v));
+            }
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                /* Lazy update: priorities go stale as neighbors are contracted. */
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.peekKey()) {
+                    order.add(v, p);
+                    continue;
+                }
+                rank[v] = next++;
+                contract(v, false);
+                freeze(v);
+                for (int u : upTo[v]) {
+                    contractedNeighbors[u]++;
+                    order.update(u, priority(u));
+                }
+            }
+            return assemble();
+        }
+
+        private double priority(int v) {
+            return contract(v, true) - degree[v] + contractedNeighbors[v];
+        }
+
+        /**
+         * Finds the shortcuts needed to contract v and, unless simulating, adds them.
+         *
+         * @return The number of shortcuts needed.
+         */
+        private int contract(int v, boolean simulate) {
+            int shortcuts = 0;
+            int d = degree[v];
+            int[] to = adjTo[v];
+            double[] weight = adjWeight[v];
+            for (int i = 0; i + 1 < d; i++) {
+                int u = to[i];
+                double limit = 0;
+                for (int j = i + 1; j < d; j++) {
+                    limit = Math.max(limit, weight[i] + weight[j]);
+                }
+                witnessSearch(u, v, limit,
+                        simulate ? SIMULATED_WITNESS_SETTLE_LIMIT : WITNESS_SETTLE_LIMIT);
+                for (int j = i + 1; j < d; j++) {
+                    int w = to[j];
+                    double via = weight[i] + weight[j];
+                    if (witnessStamp[w] != witnessGeneration || witnessDist[w] > via) {
+                        shortcuts++;
+                        if (!simulate) {
+                            addEdge(u, w, via, v);
+                        }
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Dijkstra from source in the remaining graph, skipping avoid, that stops past distance
+         * limit or after settling maxSettled nodes.
+         */
+        private void witnessSearch(int source, int avoid, double limit, int maxSettled) {
+            witnessGeneration++;
+            if (witnessGeneration == 0) {
+                Arrays.fill(witnessStamp, 0);
+                witnessGeneration = 1;
+            }
+            witnessHeap.clear();
+            witnessStamp[source] = witnessGeneration;
+            witnessDist[source] = 0.0;
+            witnessHeap.add(source, 0.0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && witnessHeap.peekKey() <= limit
+                    && settled++ < maxSettled) {
+                int x = witnessHeap.poll();
+                for (int i = 0; i < degree[x]; i++) {
+                    int y = adjTo[x][i];
+                    if (y == avoid) {
+                        continue;
+                    }
+                    double nd = witnessDist[x] + adjWeight[x][i];
+                    if (witnessStamp[y] != witnessGeneration) {
+                        witnessStamp[y] = witnessGeneration;
+                        witnessDist[y] = nd;
+                        witnessHeap.add(y, nd);
+                    } else if (nd < witnessDist[y] && witnessHeap.contains(y)) {
+                        witnessDist[y] = nd;
+                        witnessHeap.decreaseKey(y, nd);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds or shortens the undirected edge u-w.
+         */
+        private void addEdge(int u, int w, double weight, int mid) {
+            int i = find(u, w);
+            if (i >= 0) {
+                if (weight < adjWeight[u][i]) {
+                    adjWeight[u][i] = weight;
+                    adjMid[u][i] = mid;
+                    int j = find(w, u);
+                    adjWeight[w][j] = weight;
+                    adjMid[w][j] = mid;
+                }
+                return;
+            }
+            append(u, w, weight, mid);
+            append(w, u, weight, mid);
+        }
+
+        private int find(int u, int w) {
+            for (int i = 0; i < degree[u]; i++) {
+                if (adjTo[u][i] == w) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void append(int u, int w, double weight, int mid) {
+            int d = degree[u];
+            if (d == adjTo[u].length) {
+                adjTo[u] = Arrays.copyOf(adjTo[u], 2 * d);
+                adjWeight[u] = Arrays.copyOf(adjWeight[u], 2 * d);
+                adjMid[u] = Arrays.copyOf(adjMid[u], 2 * d);
+            }
+            adjTo[u][d] = w;
+            adjWeight[u][d] = weight;
+            adjMid[u][d] = mid;
+            degree[u]++;
+        }
+
+        /**
+         * Records v's remaining edges as its upward edges and removes v from its neighbors.
+         */
+        private void freeze(int v) {
+            int d = degree[v];
+            upTo[v] = Arrays.copyOf(adjTo[v], d);
+            upWeight[v] = Arrays.copyOf(adjWeight[v], d);
+            upMid[v] = Arrays.copyOf(adjMid[v], d);
+            for (int i = 0; i < d; i++) {
+                int u = adjTo[v][i];
+                int j = find(u, v);
+                int last = --degree[u];
+                adjTo[u][j] = adjTo[u][last];
+                adjWeight[u][j] = adjWeight[u][last];
+                adjMid[u][j] = adjMid[u][last];
+            }
+            adjTo[v] = null;
+            adjWeight[v] = null;
+            adjMid[v] = null;
+            degree[v] = 0;
+        }
+
+        private ContractionHierarchy assemble() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + upTo[v].length;
+            }
+            int m = offsets[n];
+            int[] targets = new int[m];
+            int[] middles = new int[m];
+            double[] weights = new double[m];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upTo[v], 0, targets, offsets[v], upTo[v].length);
+                System.arraycopy(upMid[v], 0, middles, offsets[v], upMid[v].length);
+                System.arraycopy(upWeight[v], 0, weights, offsets[v], upWeight[v].length);
+            }
+            return new ContractionHierarchy(graph, rank, offsets, targets, middles, weights);
+        }
+    }
+
+    /**
+     * Offline preprocessing step: loads the graph for an OSM file and writes its hierarchy.
+     *
+     * @param args The OSM file path.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java ContractionHierarchy <file.osm>");
+            System.exit(1);
+        }
+        CompactGraph graph = new GraphDB(args[0]).getGraph();
+        long start = System.currentTimeMillis();
+        ContractionHierarchy ch = build(graph);
+        File file = fileFor(args[0]);
+        ch.write(file);
+        System.out.println("Contracted " + graph.size() + " nodes into " + ch.edgeCount()
+                + " upward edges in " + (System.currentTimeMillis() - start) + " ms, wrote "
+                + file);
+    }
+}
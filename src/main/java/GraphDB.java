@@ -2,6 +2,7 @@ import org.xml.sax.SAXException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import javax.xml.parsers.ParserConfigurationException;
@@ -16,6 +17,13 @@ import javax.xml.parsers.SAXParserFactory;
  */
 
 public class GraphDB {
+    /**
+     * System property choosing the OSM parser: "parallel" (the default) reads the file with
+     * OsmReader on all cores, "stream" with OsmReader in one pass, and "sax" with the original
+     * MapDBHandler, kept as the reference implementation.
+     */
+    public static final String PARSER_PROPERTY = "osm.parser";
+
     /**
      * Example constructor shows how to create and start an XML parser.
      *
@@ -24,8 +32,86 @@ public class GraphDB {
 
     private HashMap<String, Node> nodes = new HashMap<String, Node>();
     private Connection ways;
+    private CompactGraph graph;
+    private KdTree index;
+    private ContractionHierarchy hierarchy;
+    private Locations locations;
+    private PrefixIndex prefixIndex;
+    private NameIndex nameIndex;
 
     public GraphDB(String dbPath) {
+        this(dbPath, true);
+    }
+
+    /**
+     * @param dbPath      Path to the XML file to be parsed.
+     * @param useSnapshot Whether to load the pre-built GraphSnapshot and Locations for dbPath
+     *                    when they exist and are up to date, instead of parsing the XML, and
+     *                    the pre-built ContractionHierarchy if one matches the graph.
+     */
+    public GraphDB(String dbPath, boolean useSnapshot) {
+        if (useSnapshot) {
+            try {
+                graph = GraphSnapshot.load(GraphSnapshot.snapshotFor(dbPath), new File(dbPath));
+                locations = Locations.load(Locations.fileFor(dbPath), new File(dbPath));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (graph == null || locations == null) {
+            parse(dbPath);
+        }
+        buildIndexes();
+        if (useSnapshot) {
+            try {
+                hierarchy = ContractionHierarchy.load(ContractionHierarchy.fileFor(dbPath), graph);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Builds the graph, locations and search indexes of OSM data, such as the data of a file
+     * with changes applied. There is no ContractionHierarchy, since none can have been built
+     * for the new graph.
+     */
+    public GraphDB(OsmData data) {
+        graph = data.graph();
+        locations = data.locations();
+        nodes = null;
+        buildIndexes();
+    }
+
+    private void buildIndexes() {
+        index = new KdTree(graph);
+        prefixIndex = new PrefixIndex(locations);
+        nameIndex = new NameIndex(locations);
+    }
+
+    private void parse(String dbPath) {
+        String parser = System.getProperty(PARSER_PROPERTY, "parallel");
+        if ("sax".equals(parser)) {
+            parseSax(dbPath);
+            return;
+        }
+        OsmReader reader;
+        try {
+            reader = "stream".equals(parser) ? OsmReader.read(new File(dbPath))
+                    : OsmReader.readParallel(new File(dbPath));
+        } catch (IOException e) {
+            e.printStackTrace();
+            reader = OsmReader.build(Collections.<OsmReader.Chunk>emptyList());
+        }
+        graph = reader.graph();
+        locations = reader.locations();
+        nodes = null;
+    }
+
+    /**
+     * Parses with the SAX MapDBHandler into String-keyed maps, then builds the graph from them.
+     */
+    private void parseSax(String dbPath) {
         try {
             File inputFile = new File(dbPath);
             SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -36,7 +122,13 @@ public class GraphDB {
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
+        /* Named places need not lie on a road, so they are collected before clean(). */
+        locations = Locations.build(nodes.values());
         clean();
+        graph = CompactGraph.build(nodes, ways);
+        /* The String-keyed parse structures are only needed to build the compact graph. */
+        nodes = null;
+        ways = null;
     }
 
     /**
@@ -46,17 +138,23 @@ public class GraphDB {
      * @return Cleaned string.
      */
     static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+        char[] cleaned = new char[s.length()];
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'a' && c <= 'z' || c == ' ') {
+                cleaned[n++] = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                cleaned[n++] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return new String(cleaned, 0, n);
     }
 
     public void add(Node x) {
         nodes.put(String.valueOf(x.getId()), x);
     }
 
-    public Node get(String id) {
-        return nodes.get(id);
-    }
-
     /**
      * Remove nodes with no connections from the graph.
      * While this does not guarantee that any two nodes in the remaining graph are connected,
@@ -71,11 +169,45 @@ public class GraphDB {
         }
     }
 
-    public HashMap<String, Node> getMap() {
-        return nodes;
+    /**
+     * The road graph used for routing and nearest-node lookups.
+     */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Spatial index over the nodes of getGraph().
+     */
+    public KdTree getIndex() {
+        return index;
+    }
+
+    /**
+     * The named places in the OSM file, on a road or not.
+     */
+    public Locations getLocations() {
+        return locations;
+    }
+
+    /**
+     * Autocompletion over the names of getLocations().
+     */
+    public PrefixIndex getPrefixIndex() {
+        return prefixIndex;
     }
 
-    public Connection getWays() {
-        return ways;
+    /**
+     * Exact lookup of getLocations() by cleaned name.
+     */
+    public NameIndex getNameIndex() {
+        return nameIndex;
+    }
+
+    /**
+     * The pre-built ContractionHierarchy for getGraph(), or null if none was found.
+     */
+    public ContractionHierarchy getHierarchy() {
+        return hierarchy;
     }
 }
@@ -0,0 +1,192 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the pre-built binary form of a CompactGraph, so the server does not have to
+ * re-parse the OSM XML on every start.
+ * <p>
+ * The file is little-endian and laid out as a fixed header followed by the graph arrays:
+ * <pre>
+ * int    magic            "BMGR"
+ * int    version
+ * long   osm file size
+ * long   osm file last modified time
+ * long   osm file CRC32
+ * int    node count n
+ * int    edge count m
+ * long[n]   ids
+ * double[n] lats
+ * double[n] lons
+ * int[n+1]  offsets
+ * int[m]    neighbors
+ * </pre>
+ * Loading maps the file read-only and hands slices of the mapping to the graph, so nothing is
+ * copied onto the heap and every JVM on the host reads the same page cache.
+ * </p>
+ * Build a snapshot offline with <code>java GraphSnapshot berkeley.osm</code>, which also writes
+ * the named Locations of the file.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x424D4752;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+    private static final String SUFFIX = ".graph";
+
+    /**
+     * The snapshot path used for a given OSM file.
+     */
+    public static File snapshotFor(String osmPath) {
+        return new File(osmPath + SUFFIX);
+    }
+
+    /**
+     * Writes the graph to <code>snapshot</code>, stamped with the identity of the OSM file it
+     * was built from. The file is written next to its final location and renamed into place,
+     * so a server starting concurrently never maps a half-written snapshot.
+     *
+     * @param graph    The graph to persist.
+     * @param osm      The OSM file the graph was parsed from.
+     * @param snapshot Destination file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(CompactGraph graph, File osm, File snapshot) throws IOException {
+        int n = graph.size();
+        int m = graph.edgeCount();
+        long bytes = HEADER_BYTES + 24L * n + 4L * (n + 1) + 4L * m;
+
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(bytes);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            buf.putLong(osm.length());
+            buf.putLong(osm.lastModified());
+            buf.putLong(checksum(osm));
+            buf.putInt(n);
+            buf.putInt(m);
+
+            buf.asLongBuffer().put(graph.ids());
+            buf.position(buf.position() + 8 * n);
+            buf.asDoubleBuffer().put(graph.lats());
+            buf.position(buf.position() + 8 * n);
+            buf.asDoubleBuffer().put(graph.lons());
+            buf.position(buf.position() + 8 * n);
+            buf.asIntBuffer().put(graph.offsets());
+            buf.position(buf.position() + 4 * (n + 1));
+            buf.asIntBuffer().put(graph.neighbors());
+            buf.force();
+        }
+        if (snapshot.exists() && !snapshot.delete() || !tmp.renameTo(snapshot)) {
+            throw new IOException("Could not move " + tmp + " to " + snapshot);
+        }
+    }
+
+    /**
+     * Maps a snapshot and returns the graph stored in it.
+     *
+     * @param snapshot The snapshot file.
+     * @param osm      The OSM file the snapshot should have been built from. If it exists and
+     *                 its checksum differs from the one recorded in the snapshot, the snapshot
+     *                 is considered stale.
+     * @return The graph, or null if the snapshot is missing, stale, or of another version.
+     * @throws IOException If the snapshot exists but cannot be read.
+     */
+    public static CompactGraph load(File snapshot, File osm) throws IOException {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            long osmLength = buf.getLong();
+            long osmModified = buf.getLong();
+            long osmChecksum = buf.getLong();
+            if (osm.isFile() && (osm.length() != osmLength || osm.lastModified() != osmModified)
+                    && checksum(osm) != osmChecksum) {
+                return null;
+            }
+            int n = buf.getInt();
+            int m = buf.getInt();
+            if (size != HEADER_BYTES + 24L * n + 4L * (n + 1) + 4L * m) {
+                return null;
+            }
+
+            int pos = HEADER_BYTES;
+            ByteBuffer ids = section(buf, pos, 8 * n);
+            pos += 8 * n;
+            ByteBuffer lats = section(buf, pos, 8 * n);
+            pos += 8 * n;
+            ByteBuffer lons = section(buf, pos, 8 * n);
+            pos += 8 * n;
+            ByteBuffer offsets = section(buf, pos, 4 * (n + 1));
+            pos += 4 * (n + 1);
+            ByteBuffer neighbors = section(buf, pos, 4 * m);
+            return new CompactGraph(ids.asLongBuffer(), lats.asDoubleBuffer(),
+                    lons.asDoubleBuffer(), offsets.asIntBuffer(), neighbors.asIntBuffer());
+        }
+    }
+
+    private static ByteBuffer section(ByteBuffer buf, int pos, int length) {
+        ByteBuffer view = buf.duplicate();
+        view.position(pos);
+        view.limit(pos + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * CRC32 of the contents of f, which identifies an OSM file whose size or modification
+     * time changed without its contents changing.
+     */
+    static long checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(f)) {
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                crc.update(buf, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Offline compile step: parses an OSM file and writes its snapshot.
+     *
+     * @param args The OSM file path, and optionally the snapshot path.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java GraphSnapshot <file.osm> [snapshot]");
+            System.exit(1);
+        }
+        File osm = new File(args[0]);
+        File snapshot = args.length > 1 ? new File(args[1]) : snapshotFor(args[0]);
+        GraphDB g = new GraphDB(args[0], false);
+        write(g.getGraph(), osm, snapshot);
+        System.out.println("Wrote " + g.getGraph().size() + " nodes, "
+                + g.getGraph().edgeCount() + " edges to " + snapshot);
+        File locations = Locations.fileFor(args[0]);
+        g.getLocations().write(osm, locations);
+        System.out.println("Wrote " + g.getLocations().size() + " named locations to "
+                + locations);
+    }
+}
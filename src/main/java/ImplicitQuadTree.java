@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The tile quadtree over the map, without storing any of it. The tree is perfectly regular, so
+ * the tile in column x and row y at a given depth has bounds and a QuadNode name that follow
+ * from (depth, x, y) alone. Bounds are found by halving the root box once per level, the same
+ * way the tiles were cut, so they match the scraped images exactly. A range query works out
+ * the block of intersecting columns and rows at the chosen depth and lists it in row-major
+ * order, which is the order the raster is stitched in.
+ */
+public class ImplicitQuadTree {
+
+    private final double ullat;
+    private final double ullon;
+    private final double lrlat;
+    private final double lrlon;
+    private final int maxDepth;
+    private final int tileSize;
+
+    /**
+     * @param maxDepth Depth of the deepest tiles; the root is at depth 0.
+     * @param tileSize Width and height of a tile image in pixels.
+     */
+    public ImplicitQuadTree(double ullat, double ullon, double lrlat, double lrlon, int maxDepth,
+                            int tileSize) {
+        this.ullat = ullat;
+        this.ullon = ullon;
+        this.lrlat = lrlat;
+        this.lrlon = lrlon;
+        this.maxDepth = maxDepth;
+        this.tileSize = tileSize;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * The shallowest depth whose tiles cover at most lonDpp degrees of longitude per pixel,
+     * or the deepest depth if none do.
+     */
+    public int depthFor(double lonDpp) {
+        int depth = 0;
+        while (depth < maxDepth && (lonBound(depth, 1) - ullon) / tileSize > lonDpp) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Horizontal position of lon, in pixels from the left edge of the whole map at the given
+     * depth.
+     */
+    public double pixelX(int depth, double lon) {
+        return (lon - ullon) / (lrlon - ullon) * ((long) tileSize << depth);
+    }
+
+    /**
+     * Vertical position of lat, in pixels from the top edge of the whole map at the given
+     * depth.
+     */
+    public double pixelY(int depth, double lat) {
+        return (ullat - lat) / (ullat - lrlat) * ((long) tileSize << depth);
+    }
+
+    /**
+     * Longitude of the boundary left of column x at the given depth; x may equal 2^depth for
+     * the right edge of the map.
+     */
+    private double lonBound(int depth, int x) {
+        return bound(ullon, lrlon, depth, x);
+    }
+
+    /**
+     * Latitude of the boundary above row y at the given depth; y may equal 2^depth for the
+     * bottom edge of the map.
+     */
+    private double latBound(int depth, int y) {
+        return bound(ullat, lrlat, depth, y);
+    }
+
+    /**
+     * Splits [from, to] in half depth times, taking the half that holds index i at each step,
+     * and returns the low end of the final piece.
+     */
+    private static double bound(double from, double to, int depth, int i) {
+        if (i >= 1 << depth) {
+            return to;
+        }
+        for (int bit = depth - 1; bit >= 0; bit--) {
+            double mid = (from + to) / 2;
+            if ((i >> bit & 1) == 1) {
+                from = mid;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * QuadNode name of the tile in column x and row y: one digit per level below the root,
+     * 1 to 4 for top left, top right, bottom left and bottom right. The root is 0.
+     */
+    public static int name(int depth, int x, int y) {
+        int name = 0;
+        for (int bit = depth - 1; bit >= 0; bit--) {
+            name = name * 10 + 1 + ((x >> bit & 1) | (y >> bit & 1) << 1);
+        }
+        return name;
+    }
+
+    /**
+     * The tile in column x and row y at the given depth.
+     */
+    public QuadNode node(int depth, int x, int y) {
+        return new QuadNode(name(depth, x, y), latBound(depth, y), lonBound(depth, x),
+                latBound(depth, y + 1), lonBound(depth, x + 1));
+    }
+
+    /**
+     * The tiles at depthFor(lonDpp) that intersect the query box, edges included, in
+     * row-major order.
+     *
+     * @return The tiles, or an empty list if the box lies outside the map.
+     */
+    public List<QuadNode> tiles(double qUllat, double qUllon, double qLrlat, double qLrlon,
+                                double lonDpp) {
+        List<QuadNode> tiles = new ArrayList<QuadNode>();
+        if (qUllat < lrlat || qLrlat > ullat || qUllon > lrlon || qLrlon < ullon) {
+            return tiles;
+        }
+        int depth = depthFor(lonDpp);
+        int n = 1 << depth;
+
+        /* Columns x with left edge <= qLrlon and right edge >= qUllon. Start from the
+         * arithmetic estimate and step to the exact answer against the halved bounds. */
+        double width = (lrlon - ullon) / n;
+        int x0 = clamp((int) Math.floor((qUllon - ullon) / width), n);
+        while (x0 > 0 && lonBound(depth, x0) >= qUllon) {
+            x0--;
+        }
+        while (x0 < n - 1 && lonBound(depth, x0 + 1) < qUllon) {
+            x0++;
+        }
+        int x1 = clamp((int) Math.floor((qLrlon - ullon) / width), n);
+        while (x1 < n - 1 && lonBound(depth, x1 + 1) <= qLrlon) {
+            x1++;
+        }
+        while (x1 > 0 && lonBound(depth, x1) > qLrlon) {
+            x1--;
+        }
+
+        /* Rows y with top edge >= qLrlat and bottom edge <= qUllat; latitude falls with y. */
+        double height = (ullat - lrlat) / n;
+        int y0 = clamp((int) Math.floor((ullat - qUllat) / height), n);
+        while (y0 > 0 && latBound(depth, y0) <= qUllat) {
+            y0--;
+        }
+        while (y0 < n - 1 && latBound(depth, y0 + 1) > qUllat) {
+            y0++;
+        }
+        int y1 = clamp((int) Math.floor((ullat - qLrlat) / height), n);
+        while (y1 < n - 1 && latBound(depth, y1 + 1) >= qLrlat) {
+            y1++;
+        }
+        while (y1 > 0 && latBound(depth, y1) < qLrlat) {
+            y1--;
+        }
+
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                tiles.add(node(depth, x, y));
+            }
+        }
+        return tiles;
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+}
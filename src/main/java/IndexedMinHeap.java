@@ -0,0 +1,174 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of graph node indices keyed by double priorities, with decrease-key.
+ * Every node appears at most once at a time. The node-to-position table is generation-stamped, so
+ * clear() is O(1) and a heap can be reused for any number of searches without allocating.
+ */
+public class IndexedMinHeap {
+
+    private final int[] heap;
+    private final double[] keys;
+    private final int[] pos;
+    private final int[] stamp;
+    private int generation;
+    private int size;
+    /* Since the last clear(): nodes polled, and the most nodes in the heap at once. */
+    private int polls;
+    private int peakSize;
+
+    /**
+     * @param capacity Number of nodes in the graph; nodes must be in [0, capacity).
+     */
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        pos = new int[capacity];
+        stamp = new int[capacity];
+        generation = 1;
+    }
+
+    /**
+     * Removes every node from the heap.
+     */
+    public void clear() {
+        size = 0;
+        polls = 0;
+        peakSize = 0;
+        generation++;
+        if (generation == 0) {
+            /* The counter wrapped; stale stamps could now look current. */
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of nodes removed by poll() since the last clear(); for a search, the nodes it
+     * settled.
+     */
+    public int polls() {
+        return polls;
+    }
+
+    /**
+     * The most nodes the heap has held at once since the last clear().
+     */
+    public int peakSize() {
+        return peakSize;
+    }
+
+    /**
+     * Whether v is currently in the heap.
+     */
+    public boolean contains(int v) {
+        return stamp[v] == generation && pos[v] >= 0;
+    }
+
+    /**
+     * Whether v has been removed by poll() since the last clear().
+     */
+    public boolean wasPolled(int v) {
+        return stamp[v] == generation && pos[v] < 0;
+    }
+
+    /**
+     * The node with the smallest key, without removing it.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * The smallest key in the heap.
+     */
+    public double peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * Adds v with the given key. v must not currently be in the heap.
+     */
+    public void add(int v, double key) {
+        stamp[v] = generation;
+        siftUp(size++, v, key);
+        if (size > peakSize) {
+            peakSize = size;
+        }
+    }
+
+    /**
+     * Lowers the key of v, which must be in the heap, to the given key.
+     */
+    public void decreaseKey(int v, double key) {
+        siftUp(pos[v], v, key);
+    }
+
+    /**
+     * Changes the key of v, which must be in the heap, in either direction.
+     */
+    public void update(int v, double key) {
+        int i = pos[v];
+        if (key < keys[i]) {
+            siftUp(i, v, key);
+        } else {
+            siftDown(i, v, key);
+        }
+    }
+
+    /**
+     * Removes and returns the node with the smallest key.
+     */
+    public int poll() {
+        int min = heap[0];
+        pos[min] = -1;
+        size--;
+        polls++;
+        if (size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        return min;
+    }
+
+    private void siftUp(int i, int v, double key) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(i, heap[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, v, key);
+    }
+
+    private void siftDown(int i, int v, double key) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            place(i, heap[child], keys[child]);
+            i = child;
+        }
+        place(i, v, key);
+    }
+
+    private void place(int i, int v, double key) {
+        heap[i] = v;
+        keys[i] = key;
+        pos[v] = i;
+    }
+}
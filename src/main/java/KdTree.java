@@ -0,0 +1,214 @@
+import java.util.Arrays;
+
+/**
+ * Static 2-d tree over the nodes of a CompactGraph, used to snap query points to the road
+ * network. The tree is implicit: node indices are permuted so that the median of every range
+ * sits in the middle of it, splitting on longitude at even depths and latitude at odd depths.
+ * Coordinates are copied into tree order so a query walks contiguous memory.
+ * Distances are euclidean in (lon, lat) space, the same metric used for routing.
+ */
+public class KdTree {
+
+    private final int[] nodes;
+    private final double[] lons;
+    private final double[] lats;
+
+    public KdTree(CompactGraph graph) {
+        int n = graph.size();
+        nodes = new int[n];
+        lons = new double[n];
+        lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = i;
+            lons[i] = graph.lon(i);
+            lats[i] = graph.lat(i);
+        }
+        build(0, n, 0);
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % 2 == 0 ? lons : lats);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect: rearranges [lo, hi] so that position k holds the element it would hold if
+     * the range were sorted by key, with smaller keys before it and larger keys after it.
+     * Each round partitions three ways, so runs of equal coordinates (nodes along a straight
+     * street) settle in one pass instead of degrading to quadratic time.
+     */
+    private void select(int lo, int hi, int k, double[] key) {
+        while (hi > lo) {
+            double pivot = key[(lo + hi) >>> 1];
+            /* Invariant: [lo, lt) < pivot, [lt, i) == pivot, (gt, hi] > pivot. */
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                if (key[i] < pivot) {
+                    swap(i++, lt++);
+                } else if (key[i] > pivot) {
+                    swap(i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int node = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = node;
+        double lon = lons[i];
+        lons[i] = lons[j];
+        lons[j] = lon;
+        double lat = lats[i];
+        lats[i] = lats[j];
+        lats[j] = lat;
+    }
+
+    private double distanceSquared(int i, double lat, double lon) {
+        double xDist = lons[i] - lon;
+        double yDist = lats[i] - lat;
+        return xDist * xDist + yDist * yDist;
+    }
+
+    /**
+     * Finds the node closest to the given point.
+     *
+     * @return The CompactGraph index of the closest node, or -1 if the tree is empty.
+     */
+    public int nearest(double lat, double lon) {
+        if (nodes.length == 0) {
+            return -1;
+        }
+        Neighbors best = new Neighbors(1);
+        search(0, nodes.length, 0, lat, lon, best);
+        return nodes[best.slots[0]];
+    }
+
+    /**
+     * Finds the k nodes closest to the given point.
+     *
+     * @return The CompactGraph indices of up to k nodes, closest first.
+     */
+    public int[] nearest(double lat, double lon, int k) {
+        k = Math.min(k, nodes.length);
+        if (k <= 0) {
+            return new int[0];
+        }
+        Neighbors best = new Neighbors(k);
+        search(0, nodes.length, 0, lat, lon, best);
+
+        /* Draining the max-heap yields the farthest first. */
+        int[] result = new int[best.size];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = nodes[best.slots[0]];
+            best.pop();
+        }
+        return result;
+    }
+
+    private void search(int lo, int hi, int depth, double lat, double lon, Neighbors best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        best.offer(mid, distanceSquared(mid, lat, lon));
+
+        double diff = depth % 2 == 0 ? lon - lons[mid] : lat - lats[mid];
+        if (diff < 0) {
+            search(lo, mid, depth + 1, lat, lon, best);
+            if (diff * diff < best.bound()) {
+                search(mid + 1, hi, depth + 1, lat, lon, best);
+            }
+        } else {
+            search(mid + 1, hi, depth + 1, lat, lon, best);
+            if (diff * diff < best.bound()) {
+                search(lo, mid, depth + 1, lat, lon, best);
+            }
+        }
+    }
+
+    /**
+     * Bounded max-heap of tree slots keyed by squared distance, holding the best k seen so far.
+     */
+    private static class Neighbors {
+        private final int[] slots;
+        private final double[] dists;
+        private int size;
+
+        Neighbors(int k) {
+            slots = new int[k];
+            dists = new double[k];
+            Arrays.fill(dists, Double.POSITIVE_INFINITY);
+        }
+
+        /**
+         * Squared distance a candidate has to beat to enter the heap.
+         */
+        double bound() {
+            return size < slots.length ? Double.POSITIVE_INFINITY : dists[0];
+        }
+
+        void offer(int slot, double dist) {
+            if (size < slots.length) {
+                int i = size++;
+                while (i > 0 && dists[(i - 1) / 2] < dist) {
+                    slots[i] = slots[(i - 1) / 2];
+                    dists[i] = dists[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                slots[i] = slot;
+                dists[i] = dist;
+            } else if (dist < dists[0]) {
+                siftDown(slot, dist);
+            }
+        }
+
+        void pop() {
+            size--;
+            if (size > 0) {
+                siftDown(slots[size], dists[size]);
+            }
+        }
+
+        private void siftDown(int slot, double dist) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && dists[child + 1] > dists[child]) {
+                    child++;
+                }
+                if (dists[child] <= dist) {
+                    break;
+                }
+                slots[i] = slots[child];
+                dists[i] = dists[child];
+                i = child;
+            }
+            slots[i] = slot;
+            dists[i] = dist;
+        }
+    }
+}
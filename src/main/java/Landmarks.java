@@ -0,0 +1,144 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Landmark distances for the ALT (A*, landmarks, triangle inequality) heuristic.
+ * For a landmark L and any nodes v and t, the triangle inequality gives
+ * dist(v, t) >= |dist(L, t) - dist(L, v)|, and the best such bound over all landmarks is
+ * usually far tighter than the straight-line distance, because it already accounts for
+ * the detours the road network forces.
+ * <p>
+ * Landmarks are picked by planar selection: the graph is split into equal angular sectors
+ * around its center and the node farthest from the center in each sector becomes a landmark.
+ * Distances from every landmark are then computed with one Dijkstra per landmark, run in
+ * parallel. Roads are undirected, so distances to a landmark equal distances from it.
+ * They are stored as floats, node-major, so the bounds for one node are contiguous.
+ * </p>
+ */
+public class Landmarks {
+
+    /**
+     * Landmarks selected when none are configured; more tighten the bounds, at 4 bytes per
+     * node each.
+     */
+    public static final int DEFAULT_COUNT = 16;
+
+    /**
+     * Relative rounding error of a float, used to keep bounds admissible after rounding.
+     */
+    private static final double FLOAT_ERROR = Math.ulp(1.0f);
+
+    private final int[] landmarks;
+    private final float[] dist;
+
+    private Landmarks(int[] landmarks, float[] dist) {
+        this.landmarks = landmarks;
+        this.dist = dist;
+    }
+
+    /**
+     * Selects up to <code>count</code> landmarks and computes their distances to every node.
+     */
+    public static Landmarks select(CompactGraph graph, int count) {
+        int n = graph.size();
+        double centerLat = 0;
+        double centerLon = 0;
+        for (int v = 0; v < n; v++) {
+            centerLat += graph.lat(v) / n;
+            centerLon += graph.lon(v) / n;
+        }
+
+        int[] farthest = new int[count];
+        double[] farthestDist = new double[count];
+        Arrays.fill(farthest, -1);
+        for (int v = 0; v < n; v++) {
+            double dLat = graph.lat(v) - centerLat;
+            double dLon = graph.lon(v) - centerLon;
+            double angle = Math.atan2(dLat, dLon) + Math.PI;
+            int sector = Math.min((int) (angle / (2 * Math.PI) * count), count - 1);
+            double d = dLat * dLat + dLon * dLon;
+            if (farthest[sector] < 0 || d > farthestDist[sector]) {
+                farthest[sector] = v;
+                farthestDist[sector] = d;
+            }
+        }
+        int[] landmarks = Arrays.stream(farthest).filter(v -> v >= 0).toArray();
+
+        int k = landmarks.length;
+        float[] dist = new float[n * k];
+        IntStream.range(0, k).parallel()
+                .forEach(i -> shortestPaths(graph, landmarks[i], dist, i, k));
+        return new Landmarks(landmarks, dist);
+    }
+
+    /**
+     * Dijkstra from source, writing the distance to node v into dist[v * stride + column].
+     */
+    private static void shortestPaths(CompactGraph graph, int source, float[] dist, int column,
+                                      int stride) {
+        int n = graph.size();
+        double[] d = new double[n];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+        d[source] = 0.0;
+        heap.add(source, 0.0);
+        while (!heap.isEmpty()) {
+            int v = heap.poll();
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                int w = graph.target(e);
+                double nd = d[v] + graph.distance(v, w);
+                if (nd < d[w]) {
+                    if (d[w] == Double.POSITIVE_INFINITY) {
+                        heap.add(w, nd);
+                    } else {
+                        heap.decreaseKey(w, nd);
+                    }
+                    d[w] = nd;
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            dist[v * stride + column] = (float) d[v];
+        }
+    }
+
+    /**
+     * Number of landmarks actually selected.
+     */
+    public int count() {
+        return landmarks.length;
+    }
+
+    /**
+     * Graph index of the i-th landmark.
+     */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * A lower bound on the route length between v and t. It is infinite when a landmark
+     * reaches exactly one of the two nodes, since then no route between them exists.
+     */
+    public double lowerBound(int v, int t) {
+        int k = landmarks.length;
+        int vRow = v * k;
+        int tRow = t * k;
+        double best = 0;
+        for (int i = 0; i < k; i++) {
+            double a = dist[tRow + i];
+            double b = dist[vRow + i];
+            if (a == Double.POSITIVE_INFINITY || b == Double.POSITIVE_INFINITY) {
+                if (a != b) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                continue;
+            }
+            double bound = Math.abs(a - b) - (a + b) * FLOAT_ERROR;
+            if (bound > best) {
+                best = bound;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The map data a server answers from, kept up to date by applying OSM change files (see
+ * OsmChange) in the background, without a restart.
+ * <p>
+ * The data is published as a series of immutable Versions, each a GraphDB and a RoutingEngine
+ * over it. A change builds a complete new version off to the side and publishes it with one
+ * volatile write, so a request that read the current version keeps routing, searching and
+ * drawing against it to the end, while requests that start later see the new one. Nothing
+ * reachable from a published version is modified.
+ * </p>
+ * <p>
+ * Everything derived from a graph is rebuilt with it rather than patched: node indices,
+ * the KdTree and the search indexes are new in every version, and Landmarks are recomputed
+ * along with it. A ContractionHierarchy takes far longer to build, so a new graph is first
+ * published without one, which leaves routing on ALT, and then again with a rebuilt hierarchy
+ * unless a newer change has arrived in the meantime. Hierarchies are only rebuilt if the first
+ * version had one. Routes already drawn for clients are left as they are.
+ * </p>
+ * <p>
+ * Changes need the whole OSM file, including nodes off the road network and the ways, which
+ * GraphDB does not keep, so the first change reads the file again. All work happens on one
+ * daemon thread, so changes are applied one at a time in the order they were handed in.
+ * </p>
+ */
+public class LiveGraph {
+
+    /**
+     * The map data at one point in time. Immutable; safe to share between threads.
+     */
+    public static final class Version {
+        private final long number;
+        private final GraphDB db;
+        private final Landmarks landmarks;
+        private final RoutingEngine engine;
+
+        Version(long number, GraphDB db, Landmarks landmarks, ContractionHierarchy hierarchy) {
+            this.number = number;
+            this.db = db;
+            this.landmarks = landmarks;
+            this.engine = new RoutingEngine(db.getGraph(), db.getIndex(), hierarchy, landmarks);
+        }
+
+        /**
+         * How many versions were published before this one.
+         */
+        public long number() {
+            return number;
+        }
+
+        public GraphDB db() {
+            return db;
+        }
+
+        /**
+         * The routing engine over db().getGraph().
+         */
+        public RoutingEngine engine() {
+            return engine;
+        }
+    }
+
+    private static final String[] CHANGE_SUFFIXES = {".osc", ".osc.gz"};
+
+    private final File osm;
+    private final int landmarkCount;
+    private final boolean rebuildHierarchy;
+    private final ScheduledExecutorService updates;
+    private volatile Version current;
+    /* Written only on the update thread, read by anyone. */
+    private volatile long failures;
+    private volatile long lastAppliedMillis;
+    private volatile int pendingChanges;
+
+    /* The state below is only touched on the update thread. */
+
+    /* The full data of the current version, read on the first change. */
+    private OsmData data;
+    /* Names of the files in the watched directory that have been applied. */
+    private final Set<String> applied = new HashSet<String>();
+
+    /**
+     * @param osmPath       The OSM file db was read from.
+     * @param db            The initial map data.
+     * @param landmarkCount Landmarks to compute for ALT in every version, or 0 for none.
+     */
+    public LiveGraph(String osmPath, GraphDB db, int landmarkCount) {
+        this.osm = new File(osmPath);
+        this.landmarkCount = landmarkCount;
+        this.rebuildHierarchy = db.getHierarchy() != null;
+        this.updates = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "osm-changes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.current = new Version(0, db, landmarks(db), db.getHierarchy());
+    }
+
+    /**
+     * The latest published version. Callers should read it once per request and use that
+     * version throughout, since node indices differ between versions.
+     */
+    public Version current() {
+        return current;
+    }
+
+    /**
+     * Queues a change file to be applied after any changes queued before it.
+     *
+     * @return The version the change was published in; it fails with an IOException if the
+     * file could not be read, in which case nothing is published.
+     */
+    public Future<Version> apply(File change) {
+        return updates.submit(() -> applyNow(change));
+    }
+
+    /**
+     * Applies the OSM change files that appear in a directory, every period, in file name
+     * order, which is sequence order for replication diffs. Files ending in ".osc" or
+     * ".osc.gz" are picked up; they should be moved into the directory once complete. A file
+     * that fails to apply is tried again at the next poll, and later files wait for it, which
+     * failures() and pendingChanges() show. Every file already in the directory is applied,
+     * so a restarted server catches up with the changes it had applied before.
+     */
+    public void watch(File directory, long period, TimeUnit unit) {
+        updates.scheduleWithFixedDelay(() -> poll(directory), 0, period, unit);
+    }
+
+    /**
+     * Number of times a change file failed to apply; a file that keeps failing in a watched
+     * directory counts once per poll.
+     */
+    public long failures() {
+        return failures;
+    }
+
+    /**
+     * When a change was last published, in milliseconds since the epoch, or 0 if none was.
+     */
+    public long lastAppliedMillis() {
+        return lastAppliedMillis;
+    }
+
+    /**
+     * Change files in the watched directory that were not applied by the last poll. It stays
+     * above zero while a file that fails to apply holds up the ones after it.
+     */
+    public int pendingChanges() {
+        return pendingChanges;
+    }
+
+    /**
+     * Stops applying changes. The current version stays available.
+     */
+    public void close() {
+        updates.shutdownNow();
+    }
+
+    private void poll(File directory) {
+        File[] files = directory.listFiles(file -> file.isFile() && isChange(file.getName()));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        int pending = 0;
+        for (File file : files) {
+            if (!applied.contains(file.getName())) {
+                pending++;
+            }
+        }
+        pendingChanges = pending;
+        for (File file : files) {
+            if (applied.contains(file.getName())) {
+                continue;
+            }
+            try {
+                applyNow(file);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                return;
+            }
+            applied.add(file.getName());
+            pendingChanges = --pending;
+        }
+    }
+
+    private Version applyNow(File file) throws IOException {
+        try {
+            Version version = applyChange(file);
+            lastAppliedMillis = System.currentTimeMillis();
+            return version;
+        } catch (IOException | RuntimeException e) {
+            failures++;
+            throw e;
+        }
+    }
+
+    private Version applyChange(File file) throws IOException {
+        OsmChange change = OsmChange.read(file);
+        if (data == null) {
+            data = OsmReader.readParallel(osm).data();
+        }
+        OsmData changed = data.apply(change);
+        GraphDB db = new GraphDB(changed);
+        Version version = new Version(current.number + 1, db, landmarks(db), null);
+        data = changed;
+        current = version;
+        if (rebuildHierarchy) {
+            updates.execute(() -> addHierarchy(version));
+        }
+        return version;
+    }
+
+    /**
+     * Publishes version again with a hierarchy, unless it has been replaced in the meantime.
+     */
+    private void addHierarchy(Version version) {
+        if (current != version) {
+            return;
+        }
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(version.db.getGraph());
+        current = new Version(version.number + 1, version.db, version.landmarks, hierarchy);
+    }
+
+    private Landmarks landmarks(GraphDB db) {
+        return landmarkCount > 0 ? Landmarks.select(db.getGraph(), landmarkCount) : null;
+    }
+
+    private static boolean isChange(String name) {
+        for (String suffix : CHANGE_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable table of the named OSM nodes, for search. Location i has its OSM id, latitude,
+ * longitude and name in parallel arrays. Locations are kept whether or not they lie on a
+ * road, so unlike the nodes of a CompactGraph they include shops, landmarks and the like.
+ * <p>
+ * The table is stored next to the OSM file, stamped with the identity of the OSM file like a
+ * GraphSnapshot, as a little-endian header followed by the arrays:
+ * <pre>
+ * int    magic            "BMLO"
+ * int    version
+ * long   osm file size
+ * long   osm file last modified time
+ * long   osm file CRC32
+ * int    location count k
+ * int    name byte count b
+ * long[k]   ids
+ * double[k] lats
+ * double[k] lons
+ * int[k+1]  name offsets into the name bytes
+ * byte[b]   names, UTF-8
+ * </pre>
+ * It is written by <code>java GraphSnapshot berkeley.osm</code> along with the graph.
+ * </p>
+ */
+public class Locations {
+    private static final int MAGIC = 0x424D4C4F;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+    private static final String SUFFIX = ".names";
+
+    private final long[] ids;
+    private final double[] lats;
+    private final double[] lons;
+    private final String[] names;
+
+    private Locations(long[] ids, double[] lats, double[] lons, String[] names) {
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+        this.names = names;
+    }
+
+    /**
+     * Collects the parsed nodes that have a name, in ascending OSM id order.
+     */
+    public static Locations build(Iterable<Node> nodes) {
+        List<Node> named = new ArrayList<Node>();
+        for (Node node : nodes) {
+            if (node.getName() != null && !node.getName().isEmpty()) {
+                named.add(node);
+            }
+        }
+        Collections.sort(named);
+        int k = named.size();
+        long[] ids = new long[k];
+        double[] lats = new double[k];
+        double[] lons = new double[k];
+        String[] names = new String[k];
+        for (int i = 0; i < k; i++) {
+            Node node = named.get(i);
+            ids[i] = node.getId();
+            lats[i] = node.getLat();
+            lons[i] = node.getLon();
+            names[i] = node.getName();
+        }
+        return new Locations(ids, lats, lons, names);
+    }
+
+    /**
+     * Makes a table out of parallel arrays of named nodes in file order, sorting them by OSM
+     * id. Of a repeated id the last occurrence is kept. The arrays are not copied.
+     */
+    static Locations of(long[] ids, double[] lats, double[] lons, String[] names) {
+        int k = ids.length;
+        boolean sorted = true;
+        for (int i = 1; i < k && sorted; i++) {
+            sorted = ids[i - 1] < ids[i];
+        }
+        if (sorted) {
+            return new Locations(ids, lats, lons, names);
+        }
+        Integer[] order = new Integer[k];
+        for (int i = 0; i < k; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(ids[a], ids[b]));
+        long[] sortedIds = new long[k];
+        double[] sortedLats = new double[k];
+        double[] sortedLons = new double[k];
+        String[] sortedNames = new String[k];
+        int m = 0;
+        for (int i = 0; i < k; i++) {
+            int p = order[i];
+            if (m > 0 && sortedIds[m - 1] == ids[p]) {
+                m--;
+            }
+            sortedIds[m] = ids[p];
+            sortedLats[m] = lats[p];
+            sortedLons[m] = lons[p];
+            sortedNames[m] = names[p];
+            m++;
+        }
+        return new Locations(Arrays.copyOf(sortedIds, m), Arrays.copyOf(sortedLats, m),
+                Arrays.copyOf(sortedLons, m), Arrays.copyOf(sortedNames, m));
+    }
+
+    /**
+     * The locations path used for a given OSM file.
+     */
+    public static File fileFor(String osmPath) {
+        return new File(osmPath + SUFFIX);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long id(int i) {
+        return ids[i];
+    }
+
+    public double lat(int i) {
+        return lats[i];
+    }
+
+    public double lon(int i) {
+        return lons[i];
+    }
+
+    public String name(int i) {
+        return names[i];
+    }
+
+    /**
+     * Writes the table to <code>file</code>, stamped with the identity of the OSM file it was
+     * parsed from, through a temporary file renamed into place.
+     */
+    public void write(File osm, File file) throws IOException {
+        int k = size();
+        byte[][] encoded = new byte[k][];
+        int nameBytes = 0;
+        for (int i = 0; i < k; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            nameBytes += encoded[i].length;
+        }
+        long bytes = HEADER_BYTES + 24L * k + 4L * (k + 1) + nameBytes;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = out.getChannel()) {
+            out.setLength(bytes);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            buf.putLong(osm.length());
+            buf.putLong(osm.lastModified());
+            buf.putLong(GraphSnapshot.checksum(osm));
+            buf.putInt(k);
+            buf.putInt(nameBytes);
+            for (long id : ids) {
+                buf.putLong(id);
+            }
+            for (double lat : lats) {
+                buf.putDouble(lat);
+            }
+            for (double lon : lons) {
+                buf.putDouble(lon);
+            }
+            int offset = 0;
+            buf.putInt(offset);
+            for (byte[] name : encoded) {
+                offset += name.length;
+                buf.putInt(offset);
+            }
+            for (byte[] name : encoded) {
+                buf.put(name);
+            }
+            buf.force();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Could not move " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Loads the table stored in <code>file</code>.
+     *
+     * @param osm The OSM file the table should have been parsed from; see GraphSnapshot.load.
+     * @return The table, or null if the file is missing, stale, or of another version.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public static Locations load(File file, File osm) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            long osmLength = buf.getLong();
+            long osmModified = buf.getLong();
+            long osmChecksum = buf.getLong();
+            if (osm.isFile() && (osm.length() != osmLength || osm.lastModified() != osmModified)
+                    && GraphSnapshot.checksum(osm) != osmChecksum) {
+                return null;
+            }
+            int k = buf.getInt();
+            int nameBytes = buf.getInt();
+            if (size != HEADER_BYTES + 24L * k + 4L * (k + 1) + nameBytes) {
+                return null;
+            }
+            long[] ids = new long[k];
+            double[] lats = new double[k];
+            double[] lons = new double[k];
+            int[] offsets = new int[k + 1];
+            buf.asLongBuffer().get(ids);
+            buf.position(buf.position() + 8 * k);
+            buf.asDoubleBuffer().get(lats);
+            buf.position(buf.position() + 8 * k);
+            buf.asDoubleBuffer().get(lons);
+            buf.position(buf.position() + 8 * k);
+            buf.asIntBuffer().get(offsets);
+            buf.position(buf.position() + 4 * (k + 1));
+            byte[] utf8 = new byte[nameBytes];
+            buf.get(utf8);
+            String[] names = new String[k];
+            for (int i = 0; i < k; i++) {
+                names[i] = new String(utf8, offsets[i], offsets[i + 1] - offsets[i],
+                        StandardCharsets.UTF_8);
+            }
+            return new Locations(ids, lats, lons, names);
+        }
+    }
+}
@@ -26,7 +26,7 @@ public class MapDBHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+    static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
@@ -35,7 +35,7 @@ public class MapDBHandler extends DefaultHandler {
     private final GraphDB g;
 
     private String name;
-    private String lastNode;
+    private Node lastNode;
 
     private Connection ways = new Connection();
 
@@ -73,7 +73,11 @@ public class MapDBHandler extends DefaultHandler {
             double lon = Double.parseDouble(attributes.getValue("lon"));
             Node n = new Node(Long.parseLong(id), lat, lon);
             g.add(n);
+            lastNode = n;
             //System.out.println(n);
+        } else if (activeState.equals("node") && qName.equals("tag")
+                && attributes.getValue("k").equals("name")) {
+            lastNode.setName(attributes.getValue("v"));
         } else if (qName.equals("way")) {
             activeState = "way";
             currentWay = new ArrayList<String>();
@@ -110,6 +114,10 @@ public class MapDBHandler extends DefaultHandler {
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
             currentWay = new ArrayList<String>();
+            activeState = "";
+        } else if (qName.equals("node")) {
+            lastNode = null;
+            activeState = "";
         }
     }
 
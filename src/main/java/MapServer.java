@@ -1,23 +1,24 @@
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.Color;
-import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
 import java.io.File;
+import java.io.OutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Base64;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.awt.BasicStroke;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
-import javax.imageio.ImageIO;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
@@ -51,6 +52,8 @@ public class MapServer {
      * Route stroke information: Cyan with half transparency.
      */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    private static final BasicStroke ROUTE_STROKE = new BasicStroke(ROUTE_STROKE_WIDTH_PX,
+            BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
     /**
      * HTTP failed response.
      */
@@ -59,6 +62,19 @@ public class MapServer {
      * The tile images are in the IMG_ROOT folder.
      */
     private static final String IMG_ROOT = "img/";
+    /**
+     * Depth of the deepest tiles in IMG_ROOT.
+     */
+    private static final int MAX_TILE_DEPTH = 7;
+    /**
+     * Tiles only change when the image set is replaced, so browsers and caches may keep them
+     * for 30 days, revalidating with the ETag after that.
+     */
+    private static final String TILE_CACHE_CONTROL = "public, max-age=2592000";
+    /**
+     * HTTP response for a tile that does not exist.
+     */
+    private static final int TILE_NOT_FOUND_RESPONSE = 404;
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
@@ -82,25 +98,126 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
              "end_lat", "end_lon"};
+    /**
+     * Optional route request parameter naming the RoutingEngine.Algorithm to search with,
+     * e.g. algorithm=bidirectional_astar. Without it the configured default is used.
+     */
+    private static final String ROUTE_ALGORITHM_PARAM = "algorithm";
+    /**
+     * System property that sets the default routing algorithm, e.g.
+     * -Drouting.algorithm=BIDIRECTIONAL_ASTAR. Unset, the engine picks the fastest it supports.
+     */
+    private static final String ROUTE_ALGORITHM_PROPERTY = "routing.algorithm";
+    /**
+     * Optional raster request parameter; overlay=false leaves the route out of the image, for
+     * clients that draw it themselves from /route_overlay. Such rasters do not depend on the
+     * route, so they stay cached when it changes.
+     */
+    private static final String RASTER_OVERLAY_PARAM = "overlay";
+    /**
+     * Each route overlay request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * depth -> the tile depth to simplify the route for, as returned by /raster.
+     **/
+    private static final String[] REQUIRED_ROUTE_OVERLAY_REQUEST_PARAMS = {"depth"};
+    /**
+     * Routes belong to the client that found them. A client names its session with the
+     * session parameter or the X-Route-Session header on /raster, /raster.png, /route,
+     * /route_overlay and /clear_route. A /route request without one starts a new session,
+     * whose token is returned in the X-Route-Session response header.
+     */
+    private static final String ROUTE_SESSION_PARAM = "session";
+    private static final String ROUTE_SESSION_HEADER = "X-Route-Session";
+    /**
+     * Session of the routes set through the static findAndSetRoute and drawn by getMapRaster.
+     * It is not a valid token, so no HTTP client can reach it.
+     */
+    private static final String LOCAL_SESSION = "";
+    /**
+     * System properties bounding the route sessions: the most sessions kept at once, and the
+     * minutes a session may go unused before its route is forgotten.
+     */
+    private static final String ROUTE_SESSIONS_MAX_PROPERTY = "route.sessions.max";
+    private static final String ROUTE_SESSIONS_IDLE_PROPERTY = "route.sessions.idle.minutes";
+    private static final int DEFAULT_ROUTE_SESSIONS_MAX = 10000;
+    private static final int DEFAULT_ROUTE_SESSIONS_IDLE = 30;
+    /**
+     * Most autocompletions returned for a /search prefix query.
+     */
+    private static final int SEARCH_LIMIT = PrefixIndex.TOP_K;
+    /**
+     * Optional search request parameter; fuzzy=d returns the names within d edits of the term,
+     * for d from 0 to PrefixIndex.MAX_FUZZY_DISTANCE, instead of the names it prefixes.
+     */
+    private static final String SEARCH_FUZZY_PARAM = "fuzzy";
+    /**
+     * Each distance matrix request to the server will have the following parameters, each a
+     * list of points written as lat,lon and separated by semicolons, e.g.
+     * sources=37.87,-122.26;37.86,-122.25. POST requests may send them form-encoded instead,
+     * for lists too long for a URL.<br>
+     * sources -> the points routes start from,<br> targets -> the points routes end at.
+     */
+    private static final String MATRIX_SOURCES_PARAM = "sources";
+    private static final String MATRIX_TARGETS_PARAM = "targets";
+    /**
+     * System property bounding the work of one /matrix request: the most source and target
+     * pairs it may ask for.
+     */
+    private static final String MATRIX_MAX_CELLS_PROPERTY = "matrix.max.cells";
+    private static final int DEFAULT_MATRIX_MAX_CELLS = 250000;
+    /**
+     * System properties for live map updates: a directory polled for OSM change files (.osc
+     * or .osc.gz) to apply while the server runs, and the seconds between polls. Unset, the
+     * map stays as it was read at startup.
+     */
+    private static final String OSM_CHANGES_DIR_PROPERTY = "osm.changes.dir";
+    private static final String OSM_CHANGES_POLL_PROPERTY = "osm.changes.poll.seconds";
+    private static final int DEFAULT_OSM_CHANGES_POLL = 10;
+    /**
+     * System property setting the number of landmarks selected for the ALT routing heuristic,
+     * e.g. -Drouting.landmarks=8; 0 disables ALT.
+     */
+    private static final String ROUTE_LANDMARKS_PROPERTY = "routing.landmarks";
+    /**
+     * Memory budget for decoded map tiles; 256 MB holds about a thousand 256x256 tiles.
+     */
+    private static final long TILE_CACHE_BYTES = 256L << 20;
+    /**
+     * Memory budget for finished /raster responses, PNG and JSON included.
+     */
+    private static final long RASTER_CACHE_BYTES = 64L << 20;
+    /**
+     * System properties tuning raster PNG encoding: the zlib level from 0 (stored, fastest) to
+     * 9 (smallest), and the PngEncoder.Filter applied to each scanline.
+     */
+    private static final String PNG_LEVEL_PROPERTY = "raster.png.level";
+    private static final String PNG_FILTER_PROPERTY = "raster.png.filter";
+    private static final int DEFAULT_PNG_LEVEL = 6;
+    private static final String DEFAULT_PNG_FILTER = "UP";
+    /**
+     * Response headers carrying the raster parameters on the binary /raster.png endpoint.
+     */
+    private static final String[][] RASTER_HEADERS = {
+        {"raster_ul_lat", "X-Raster-Ul-Lat"}, {"raster_ul_lon", "X-Raster-Ul-Lon"},
+        {"raster_lr_lat", "X-Raster-Lr-Lat"}, {"raster_lr_lon", "X-Raster-Lr-Lon"},
+        {"raster_width", "X-Raster-Width"}, {"raster_height", "X-Raster-Height"},
+        {"depth", "X-Raster-Depth"}};
     /* Define any static variables here. Do not define any instance variables of MapServer. */
-    private static GraphDB g;
+    private static LiveGraph liveGraph;
 
-    private static QuadTree quad;
-    private static QuadNode root;
+    private static ImplicitQuadTree tileTree;
 
-    private static List<QuadNode> tiles;
-    private static LinkedList<Long> route;
+    private static RouteSessions routeSessions;
+    /* The configured default routing algorithm, or null for the fastest available. */
+    private static RoutingEngine.Algorithm routeAlgorithm;
+    private static TileCache tileCache;
+    private static RasterCache rasterCache;
+    private static PngEncoder pngEncoder;
+    private static TileFiles tileFiles;
+    private static Metrics metrics;
 
 
     private static int c = 0;
-    private static HashSet<SearchNode> visited;
-    private static HashMap<SearchNode, Double> dist;
-    private static HashMap<SearchNode, SearchNode> prev;
-    private static PriorityQueue<SearchNode> fringe;
-    private static Connection neighbors;
-
-    private static Node endNode;
-    private static HashMap<SearchNode, Double> distToEnd;
 
     /**
      * Place any initialization statements that will be run before the server main loop here.
@@ -108,11 +225,107 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        g = new GraphDB(OSM_DB_PATH);
-        root = new QuadNode(0, ROOT_ULLAT, ROOT_ULLON, ROOT_LRLAT, ROOT_LRLON);
-        quad = Utils.generateQuadTree(root, 8);
-        neighbors = g.getWays();
-        route = new LinkedList<Long>();
+        metrics = new Metrics();
+        long loadStart = System.nanoTime();
+        GraphDB db = new GraphDB(OSM_DB_PATH);
+        double loadSeconds = (System.nanoTime() - loadStart) / 1e9;
+        liveGraph = new LiveGraph(OSM_DB_PATH, db,
+                Integer.getInteger(ROUTE_LANDMARKS_PROPERTY, Landmarks.DEFAULT_COUNT));
+        String configured = System.getProperty(ROUTE_ALGORITHM_PROPERTY);
+        routeAlgorithm = configured == null ? null : RoutingEngine.Algorithm.parse(configured);
+        if (routeAlgorithm != null && !liveGraph.current().engine().supports(routeAlgorithm)) {
+            throw new IllegalStateException(routeAlgorithm + " is not available for "
+                    + OSM_DB_PATH);
+        }
+        tileTree = new ImplicitQuadTree(ROOT_ULLAT, ROOT_ULLON, ROOT_LRLAT, ROOT_LRLON,
+                MAX_TILE_DEPTH, TILE_SIZE);
+        tileFiles = new TileFiles(IMG_ROOT, MAX_TILE_DEPTH);
+        tileCache = new TileCache(IMG_ROOT, TILE_CACHE_BYTES);
+        rasterCache = new RasterCache(RASTER_CACHE_BYTES);
+        pngEncoder = new PngEncoder(
+                Integer.parseInt(System.getProperty(PNG_LEVEL_PROPERTY, "" + DEFAULT_PNG_LEVEL)),
+                PngEncoder.Filter.parse(System.getProperty(PNG_FILTER_PROPERTY,
+                        DEFAULT_PNG_FILTER)));
+        routeSessions = new RouteSessions(
+                Integer.getInteger(ROUTE_SESSIONS_MAX_PROPERTY, DEFAULT_ROUTE_SESSIONS_MAX),
+                Integer.getInteger(ROUTE_SESSIONS_IDLE_PROPERTY, DEFAULT_ROUTE_SESSIONS_IDLE),
+                TimeUnit.MINUTES, rasterCache::removeRoute);
+        String changes = System.getProperty(OSM_CHANGES_DIR_PROPERTY);
+        if (changes != null) {
+            liveGraph.watch(new File(changes),
+                    Integer.getInteger(OSM_CHANGES_POLL_PROPERTY, DEFAULT_OSM_CHANGES_POLL),
+                    TimeUnit.SECONDS);
+        }
+        registerMetrics(loadSeconds);
+    }
+
+    /**
+     * Registers the gauges and counters read from other classes at every /metrics scrape.
+     *
+     * @param loadSeconds Time taken to load the graph at startup.
+     */
+    private static void registerMetrics(double loadSeconds) {
+        metrics.gauge("graph_load_seconds", "Time taken to load the graph at startup.",
+                () -> loadSeconds);
+        metrics.gauge("graph_version", "Number of map versions published since startup.",
+                () -> liveGraph.current().number());
+        metrics.gauge("graph_nodes", "Nodes in the current road graph.",
+                () -> liveGraph.current().engine().getGraph().size());
+        metrics.gauge("graph_edges", "Directed edges in the current road graph.",
+                () -> liveGraph.current().engine().getGraph().edgeCount());
+        metrics.functionCounter("cache_hits_total", "Cache lookups that found an entry.",
+                tileCache::hits, "cache", "tile");
+        metrics.functionCounter("cache_hits_total", "Cache lookups that found an entry.",
+                rasterCache::hits, "cache", "raster");
+        metrics.functionCounter("cache_misses_total", "Cache lookups that found no entry.",
+                tileCache::misses, "cache", "tile");
+        metrics.functionCounter("cache_misses_total", "Cache lookups that found no entry.",
+                rasterCache::misses, "cache", "raster");
+        metrics.functionCounter("cache_evictions_total", "Entries evicted to stay in budget.",
+                tileCache::evictions, "cache", "tile");
+        metrics.functionCounter("cache_evictions_total", "Entries evicted to stay in budget.",
+                rasterCache::evictions, "cache", "raster");
+        metrics.gauge("cache_hit_ratio", "Fraction of cache lookups that found an entry.",
+                () -> hitRatio(tileCache.hits(), tileCache.misses()), "cache", "tile");
+        metrics.gauge("cache_hit_ratio", "Fraction of cache lookups that found an entry.",
+                () -> hitRatio(rasterCache.hits(), rasterCache.misses()), "cache", "raster");
+        metrics.gauge("cache_entries", "Entries held in the cache.", tileCache::size,
+                "cache", "tile");
+        metrics.gauge("cache_entries", "Entries held in the cache.", rasterCache::size,
+                "cache", "raster");
+        metrics.functionCounter("osm_change_failures_total",
+                "Attempts to apply an OSM change file that failed.", liveGraph::failures);
+        metrics.gauge("osm_change_pending_files",
+                "Change files in the watched directory not yet applied.",
+                liveGraph::pendingChanges);
+        metrics.gauge("osm_change_last_applied_timestamp_seconds",
+                "When an OSM change was last applied, in seconds since the epoch; 0 if never.",
+                () -> liveGraph.lastAppliedMillis() / 1000.0);
+        metrics.gauge("route_sessions", "Route sessions held.", routeSessions::size);
+        metrics.functionCounter("route_session_evictions_total",
+                "Route sessions forgotten for being idle or over the limit.",
+                routeSessions::evictions);
+    }
+
+    private static double hitRatio(long hits, long misses) {
+        return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Wraps a request handler so the time it takes, halts and failures included, is recorded
+     * in the http_request_duration_seconds histogram under the given path.
+     */
+    private static spark.Route timed(String path, spark.Route route) {
+        Metrics.Histogram latency = metrics.histogram("http_request_duration_seconds",
+                "Time taken to handle a request.", "path", path);
+        return (req, res) -> {
+            long start = System.nanoTime();
+            try {
+                return route.handle(req, res);
+            } finally {
+                latency.recordNanos(System.nanoTime() - start);
+            }
+        };
     }
 
     public static void main(String[] args) {
@@ -124,56 +337,185 @@ public class MapServer {
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
+            response.header("Access-Control-Expose-Headers", ROUTE_SESSION_HEADER);
         });
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
          * the request handlers. */
-        get("/raster", (req, res) -> {
+        get("/raster", timed("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = getMapRaster(params, os);
-            /* On an image query success, add the image data to the response */
-            if (rasteredImgParams.containsKey("query_success")
-                    && (Boolean) rasteredImgParams.get("query_success")) {
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+            /* rasterize() does almost all the work for this API call, and returns the Json
+             * response with the image data already encoded into it. */
+            return rasterize(params, getRasterRoute(req)).json();
+        }));
+
+        /* Define the binary raster endpoint: the same raster as /raster, but the png image is
+         * the response body and the raster parameters are sent as headers. */
+        get("/raster.png", timed("/raster.png", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            RasterCache.Entry raster = rasterize(params, getRasterRoute(req));
+            if (raster.png() == null) {
+                halt(HALT_RESPONSE, "Request failed - nothing to raster.");
             }
-            /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
-        });
+            StringBuilder exposed = new StringBuilder(ROUTE_SESSION_HEADER);
+            for (String[] header : RASTER_HEADERS) {
+                res.header(header[1], String.valueOf(raster.params().get(header[0])));
+                exposed.append(", ").append(header[1]);
+            }
+            res.header("Access-Control-Expose-Headers", exposed.toString());
+            res.type("image/png");
+            res.raw().setContentLength(raster.png().length);
+            try (OutputStream out = res.raw().getOutputStream()) {
+                out.write(raster.png());
+            }
+            return res.raw();
+        }));
+
+        /* Define the tile endpoint: single tile images, as stored, for clients that assemble
+         * the map themselves. The ETag lets browsers and caches revalidate without a body. */
+        get("/tiles/:depth/:file", timed("/tiles", (req, res) -> {
+            String file = req.params(":file");
+            int name = -1;
+            if (file.endsWith(".png")) {
+                try {
+                    name = tileFiles.parseName(Integer.parseInt(req.params(":depth")),
+                            file.substring(0, file.length() - ".png".length()));
+                } catch (NumberFormatException e) {
+                    name = -1;
+                }
+            }
+            Path path = name < 0 ? null : tileFiles.file(name);
+            if (path == null) {
+                halt(TILE_NOT_FOUND_RESPONSE, "Request failed - no such tile.");
+            }
+            String etag = tileFiles.etag(name, path);
+            res.header("ETag", etag);
+            res.header("Cache-Control", TILE_CACHE_CONTROL);
+            res.header("Access-Control-Expose-Headers", ROUTE_SESSION_HEADER + ", ETag");
+            if (TileFiles.matches(req.headers("If-None-Match"), etag)) {
+                res.status(304);
+                return "";
+            }
+            res.type("image/png");
+            res.raw().setContentLength((int) Files.size(path));
+            try (OutputStream out = res.raw().getOutputStream()) {
+                TileFiles.transfer(path, out);
+            }
+            return res.raw();
+        }));
 
         /* Define the routing endpoint for HTTP GET requests. */
-        get("/route", (req, res) -> {
+        get("/route", timed("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = findAndSetRoute(params);
-            return !route.isEmpty();
+            String session = getSession(req);
+            if (session == null) {
+                session = routeSessions.newToken();
+            }
+            res.header(ROUTE_SESSION_HEADER, session);
+            LiveGraph.Version version = liveGraph.current();
+            LinkedList<Long> path = findAndSetRoute(version, params,
+                    getRouteAlgorithm(req, version.engine()), session);
+            return !path.isEmpty();
+        }));
+
+        /* Define the route overlay endpoint: the caller's route as a polyline in map pixels,
+         * simplified for the requested depth, for clients that draw the route themselves. */
+        get("/route_overlay", timed("/route_overlay", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ROUTE_OVERLAY_REQUEST_PARAMS);
+            double depth = params.get("depth");
+            if (depth != Math.rint(depth) || depth < 0 || depth > MAX_TILE_DEPTH) {
+                halt(HALT_RESPONSE, "Incorrect parameters - depth out of range.");
+            }
+            String session = getSession(req);
+            RouteSessions.Route route = session == null ? RouteSessions.NO_ROUTE
+                    : routeSessions.get(session);
+            HashMap<String, Object> overlayParams = new HashMap<String, Object>();
+            overlayParams.put("route_version", route.version());
+            overlayParams.put("depth", (int) depth);
+            overlayParams.put("points", route.overlay().points((int) depth));
+            return new Gson().toJson(overlayParams);
+        }));
+
+        /* Define the distance matrix endpoint: route lengths from every source to every target,
+         * with each point snapped once and one search run per source. */
+        spark.Route matrix = timed("/matrix", (req, res) -> {
+            double[][] sources = getPoints(req, MATRIX_SOURCES_PARAM);
+            double[][] targets = getPoints(req, MATRIX_TARGETS_PARAM);
+            if ((long) sources.length * targets.length
+                    > Integer.getInteger(MATRIX_MAX_CELLS_PROPERTY, DEFAULT_MATRIX_MAX_CELLS)) {
+                halt(HALT_RESPONSE, "Request failed - too many sources and targets.");
+            }
+            LiveGraph.Version version = liveGraph.current();
+            int[] sourceNodes = snap(version, sources);
+            int[] targetNodes = snap(version, targets);
+            double[][] distances = version.engine().distanceMatrix(sourceNodes, targetNodes);
+            /* Unreachable targets are sent as null, since JSON has no infinity. */
+            Double[][] rows = new Double[distances.length][targetNodes.length];
+            for (int i = 0; i < distances.length; i++) {
+                for (int j = 0; j < targetNodes.length; j++) {
+                    rows[i][j] = Double.isInfinite(distances[i][j]) ? null : distances[i][j];
+                }
+            }
+            CompactGraph graph = version.engine().getGraph();
+            HashMap<String, Object> matrixParams = new HashMap<String, Object>();
+            matrixParams.put("source_ids", ids(graph, sourceNodes));
+            matrixParams.put("target_ids", ids(graph, targetNodes));
+            matrixParams.put("distances", rows);
+            return new Gson().toJson(matrixParams);
         });
-
-        /* Define the API endpoint for clearing the current route. */
-        get("/clear_route", (req, res) -> {
-            clearRoute();
+        get("/matrix", matrix);
+        post("/matrix", matrix);
+
+        /* Define the API endpoint for clearing the caller's route. */
+        get("/clear_route", timed("/clear_route", (req, res) -> {
+            String session = getSession(req);
+            if (session != null) {
+                routeSessions.remove(session);
+            }
             return true;
-        });
+        }));
 
         /* Define the API endpoint for search */
-        get("/search", (req, res) -> {
+        get("/search", timed("/search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
             Gson gson = new Gson();
+            /* A missing or blank term matches nothing, whatever kind of search was asked for. */
+            if (term == null || term.trim().isEmpty()) {
+                return gson.toJson(Collections.emptyList());
+            }
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
                 List<Map<String, Object>> data = getLocations(term);
                 return gson.toJson(data);
+            } else if (reqParams.contains(SEARCH_FUZZY_PARAM)) {
+                /* Search for strings within a few typos of the term. */
+                int distance = -1;
+                try {
+                    distance = Integer.parseInt(req.queryParams(SEARCH_FUZZY_PARAM));
+                } catch (NumberFormatException e) {
+                    distance = -1;
+                }
+                if (distance < 0 || distance > PrefixIndex.MAX_FUZZY_DISTANCE) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - fuzzy must be 0 to "
+                            + PrefixIndex.MAX_FUZZY_DISTANCE + ".");
+                }
+                return gson.toJson(getLocationsByDistance(term, distance));
             } else {
                 /* Search for prefix matching strings. */
                 List<String> matches = getLocationsByPrefix(term);
                 return gson.toJson(matches);
             }
+        }));
+
+        /* Define the metrics endpoint, in the Prometheus text format. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return metrics.scrape();
         });
 
         /* Define map application redirect */
@@ -211,6 +553,77 @@ public class MapServer {
     }
 
 
+    /**
+     * Reads a list of points written as lat,lon pairs separated by semicolons.
+     *
+     * @return The points as {lat, lon} pairs.
+     */
+    private static double[][] getPoints(spark.Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null || value.trim().isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = value.split(";");
+        double[][] points = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] coordinates = pairs[i].split(",");
+            try {
+                if (coordinates.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                points[i] = new double[]{Double.parseDouble(coordinates[0].trim()),
+                        Double.parseDouble(coordinates[1].trim())};
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lat,lon pairs.");
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Reads the route session token of a request, from the session parameter or else the
+     * X-Route-Session header.
+     *
+     * @return The token, or null if the request names no session.
+     */
+    private static String getSession(spark.Request req) {
+        String token = req.queryParams(ROUTE_SESSION_PARAM);
+        if (token == null) {
+            token = req.headers(ROUTE_SESSION_HEADER);
+        }
+        if (token == null) {
+            return null;
+        }
+        if (!RouteSessions.isValidToken(token)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - malformed session.");
+        }
+        return token;
+    }
+
+    /**
+     * Reads the optional algorithm parameter of a route request.
+     *
+     * @param engine The engine the route will be found with.
+     * @return The requested algorithm, or the default for engine if none was requested.
+     */
+    private static RoutingEngine.Algorithm getRouteAlgorithm(spark.Request req,
+                                                            RoutingEngine engine) {
+        String name = req.queryParams(ROUTE_ALGORITHM_PARAM);
+        if (name == null) {
+            return defaultAlgorithm(engine);
+        }
+        RoutingEngine.Algorithm algorithm = null;
+        try {
+            algorithm = RoutingEngine.Algorithm.parse(name);
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - unknown routing algorithm.");
+        }
+        if (!engine.supports(algorithm)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - routing algorithm not available.");
+        }
+        return algorithm;
+    }
+
     /**
      * Handles raster API calls, queries for tiles and rasters the full image. <br>
      * <p>
@@ -224,8 +637,9 @@ public class MapServer {
      * <li>Contains all tiles that intersect the query bounding box that fulfill the
      * above condition.</li>
      * <li>The tiles must be arranged in-order to reconstruct the full image.</li>
-     * <li>If a current route exists, lines of width ROUTE_STROKE_WIDTH_PX and of color
-     * ROUTE_STROKE_COLOR are drawn between all nodes on the route in the rastered photo.
+     * <li>If a route has been set through findAndSetRoute, a line of width ROUTE_STROKE_WIDTH_PX and of color
+     * ROUTE_STROKE_COLOR is drawn along the route in the rastered photo, simplified by
+     * RouteOverlay to within half a pixel of the path through all of its nodes.
      * </li>
      * </ul>
      * Additional image about the raster is returned and is to be included in the Json response.
@@ -247,6 +661,39 @@ public class MapServer {
      * @see #REQUIRED_RASTER_REQUEST_PARAMS
      */
     public static Map<String, Object> getMapRaster(Map<String, Double> params, OutputStream os) {
+        RasterCache.Entry raster = rasterize(params, routeSessions.get(LOCAL_SESSION));
+        HashMap<String, Object> rasteredImageParams = new HashMap<String, Object>(raster.params());
+        if (raster.png() != null) {
+            try {
+                os.write(raster.png());
+            } catch (IOException e) {
+                rasteredImageParams.put("query_success", false);
+            }
+        }
+        return rasteredImageParams;
+    }
+
+    /**
+     * The route a raster request wants drawn into the image: the caller's route, unless the
+     * request names no session or asks for overlay=false.
+     */
+    private static RouteSessions.Route getRasterRoute(spark.Request req) {
+        String session = getSession(req);
+        if (session == null || "false".equalsIgnoreCase(req.queryParams(RASTER_OVERLAY_PARAM))) {
+            return RouteSessions.NO_ROUTE;
+        }
+        return routeSessions.get(session);
+    }
+
+    /**
+     * Rasters the query box described by params as getMapRaster does, reusing the finished
+     * response from rasterCache when the same tiles were rastered under the same route.
+     *
+     * @param route The route to draw over the tiles, or RouteSessions.NO_ROUTE.
+     * @return The response; its png is null if no image could be rastered.
+     */
+    private static RasterCache.Entry rasterize(Map<String, Double> params,
+                                               RouteSessions.Route route) {
 
         HashMap<String, Object> rasteredImageParams = new HashMap<String, Object>();
 
@@ -257,17 +704,20 @@ public class MapServer {
 
         double dpp = (paramsLrlon - paramsUllon) / params.get("w");
 
-        tiles = new ArrayList<QuadNode>();
+        List<QuadNode> tiles = tileTree.tiles(paramsUllat, paramsUllon, paramsLrlat, paramsLrlon,
+                dpp);
 
-        if (!intersects(paramsUllat, paramsUllon, paramsLrlat, paramsLrlon, root)) {
-            rasteredImageParams.put("query_success", false);
-            return rasteredImageParams;
+        if (tiles.isEmpty()) {
+            return failedRaster();
         }
+        metrics.histogram("raster_tiles", "Tiles covering each rastered query box.")
+                .record(tiles.size());
 
-        buildRaster(paramsUllat, paramsUllon, paramsLrlat, paramsLrlon, quad, dpp);
-
-        Collections.sort(tiles);
-        //System.out.println(tiles);
+        RasterCache.Key key = new RasterCache.Key(tiles, route.version());
+        RasterCache.Entry cached = rasterCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
 
         double wDensity = Math.abs((tiles.get(0).getLrlon() - tiles.get(0).getUllon()) / 256);
         double hDensity = Math.abs((tiles.get(0).getUllat() - tiles.get(0).getLrlat()) / 256);
@@ -293,134 +743,83 @@ public class MapServer {
 
         BufferedImage result = new BufferedImage((int) (rasterWidth + 0.5),
                 (int) (rasterHeight + 0.5), BufferedImage.TYPE_INT_RGB);
-        Graphics gfx = result.getGraphics();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
 
         try {
-            int x = 0;
-            int y = 0;
-            for (QuadNode q : tiles) {
-                File img = new File("img/" + String.valueOf(q.getName() + ".png"));
-                BufferedImage bi = ImageIO.read(img);
-                gfx.drawImage(bi, x, y, null);
-                x += 256;
-                if (x >= result.getWidth()) {
-                    x = 0;
-                    y += bi.getHeight();
-                }
-            }
+            stitch(tiles, result);
 
-            Graphics2D g2d = (Graphics2D) gfx;
-            if (!route.isEmpty()) {
-                HashMap<String, Node> map = g.getMap();
-                long p = -1;
+            double[] points = route.overlay().points(depth);
+            if (points.length > 0) {
                 QuadNode upperLeft = tiles.get(0);
-                Node prev = map.get(String.valueOf(p));
-                Node cur = prev;
-                for (long n : route) {
-                    if (p != -1) {
-                        prev = map.get(String.valueOf(p));
-                        cur = map.get(String.valueOf(n));
-
-                        int x1 = (int) ((prev.getLon() - upperLeft.getUllon())  / wDensity);
-                        int y1 = (int) ((upperLeft.getUllat() - prev.getLat()) / hDensity);
-                        int x2 = (int) ((cur.getLon() - upperLeft.getUllon()) / wDensity);
-                        int y2 = (int) ((upperLeft.getUllat() - cur.getLat()) / hDensity);
-
-                        g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
-                                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                        g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
-                        g2d.drawLine(x1, y1, x2, y2);
-                    }
-                    p = n;
+                double originX = tileTree.pixelX(depth, upperLeft.getUllon());
+                double originY = tileTree.pixelY(depth, upperLeft.getUllat());
+                Path2D.Double line = new Path2D.Double(Path2D.WIND_NON_ZERO, points.length / 2);
+                line.moveTo(points[0] - originX, points[1] - originY);
+                for (int i = 2; i < points.length; i += 2) {
+                    line.lineTo(points[i] - originX, points[i + 1] - originY);
                 }
+                Graphics2D g2d = result.createGraphics();
+                g2d.setStroke(ROUTE_STROKE);
+                g2d.setColor(ROUTE_STROKE_COLOR);
+                g2d.draw(line);
+                g2d.dispose();
             }
 
-
-            ImageIO.write(result, "png", os);
+            pngEncoder.encode(result, os);
             rasteredImageParams.put("query_success", true);
-            return rasteredImageParams;
         } catch (IOException e) {
-            System.out.println("There's a problem");
-            rasteredImageParams.put("query_success", false);
-            return rasteredImageParams;
-        }
-    }
-
-    public static void buildRaster2(double ullat, double ullon, double lrlat,
-                                    double lrlon, QuadTree tree, double res) {
-
-        if (tree == null || tree.getRoot() == null || tree.topLeft() == null) {
-            return;
-        }
-
-        double density = (tree.getRoot().getLrlon() - tree.getRoot().getUllon()) / 256;
-        //System.out.println(density);
-
-        if (density <= res) {
-            tiles.add(tree.getRoot());
-            return;
+            metrics.counter("raster_failures_total",
+                    "Rasters that failed because a tile could not be read or encoded.").increment();
+            return failedRaster();
         }
 
-        //Top left
-        if (intersects(ullat, ullon, lrlat, lrlon, tree.topLeft().getRoot())) {
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.topLeft(), res);
-        }
-        //Top right
-        if (intersects(ullat, ullon, lrlat, lrlon, tree.topRight().getRoot())) {
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.topRight(), res);
-        }
-        //Bottom left
-        if (intersects(ullat, ullon, lrlat, lrlon, tree.bottomLeft().getRoot())) {
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.bottomLeft(), res);
-        }
-        //Bottom right
-        if (intersects(ullat, ullon, lrlat, lrlon, tree.bottomRight().getRoot())) {
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.bottomRight(), res);
-        }
+        RasterCache.Entry raster = new RasterCache.Entry(
+                Collections.unmodifiableMap(rasteredImageParams), os.toByteArray());
+        rasterCache.put(key, raster);
+        return raster;
     }
 
-    public static void buildRaster(double ullat, double ullon, double lrlat, double lrlon, QuadTree tree, double res) {
-        if (tree == null || tree.getRoot() == null) {
-            return;
-        }
-
-        //System.out.println(density);
-
-        if (intersects(ullat, ullon, lrlat, lrlon, tree.getRoot())) {
-            double density = (tree.getRoot().getLrlon() - tree.getRoot().getUllon()) / 256;
-            if (density <= res || tree.topLeft() == null) {
-                tiles.add(tree.getRoot());
-                return;
-            }
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.topLeft(), res);
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.topRight(), res);
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.bottomLeft(), res);
-            buildRaster(ullat, ullon, lrlat, lrlon, tree.bottomRight(), res);
+    /**
+     * Copies tiles, sorted in row-major order, into result at TILE_SIZE intervals. Tiles are
+     * fetched and decoded in parallel, and each writes its rows straight into its own region of
+     * result's pixel array, so no two tasks touch the same pixels.
+     *
+     * @param result A TYPE_INT_RGB image wide and tall enough for the tiles.
+     */
+    private static void stitch(List<QuadNode> tiles, BufferedImage result) throws IOException {
+        int width = result.getWidth();
+        int height = result.getHeight();
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        try {
+            IntStream.range(0, tiles.size()).parallel().forEach(i -> {
+                BufferedImage tile;
+                try {
+                    tile = tileCache.get(tiles.get(i).getName());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                int[] tilePixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+                int x = (i % columns) * TILE_SIZE;
+                int y = (i / columns) * TILE_SIZE;
+                int w = Math.min(tile.getWidth(), width - x);
+                int h = Math.min(tile.getHeight(), height - y);
+                for (int row = 0; row < h; row++) {
+                    System.arraycopy(tilePixels, row * tile.getWidth(), pixels,
+                            (y + row) * width + x, w);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
-    public static void gatherRaster(double ullat, double ullon, double lrlat, double lrlon, QuadTree tree, double res) {
-        if (tree == null || tree.getRoot() == null) {
-            return;
-        }
-
-        if (!intersects(ullat, ullon, lrlat, lrlon, tree.getRoot())) {
-            return;
-        }
-
-        double density = (tree.getRoot().getLrlon() - tree.getRoot().getUllon()) / 256;
-
-        if ((density <= res) || (int) (Math.log10(tree.getRoot().getName())) == 7) {
-            tiles.add(quad.getRoot());
-            return;
-        }
-
-        gatherRaster(ullat, ullon, lrlat, lrlon, tree.topLeft(), res);
-        gatherRaster(ullat, ullon, lrlat, lrlon, tree.topRight(), res);
-        gatherRaster(ullat, ullon, lrlat, lrlon, tree.bottomLeft(), res);
-        gatherRaster(ullat, ullon, lrlat, lrlon, tree.bottomRight(), res);
+    private static RasterCache.Entry failedRaster() {
+        return new RasterCache.Entry(
+                Collections.<String, Object>singletonMap("query_success", false), null);
     }
 
+
     /*public boolean tileContains(double ullat, double ullon, double lrlat, double lrlon, QuadTree x) {
         if (ullat <= x.getRoot().getUllat() && ullon >= x.getRoot().getUllon() &&
             lrlat >= x.getRoot().getLrlat() && lrlon =< x.getRoot().getLrlon()) {
@@ -457,7 +856,7 @@ public class MapServer {
 
     /**
      * Searches for the shortest route satisfying the input request parameters, sets it to be the
-     * current route, and returns a <code>LinkedList</code> of the route's node ids for testing
+     * route getMapRaster draws, and returns a <code>LinkedList</code> of the route's node ids for testing
      * purposes. <br>
      * The route should start from the closest node to the start point and end at the closest node
      * to the endpoint. Distance is defined as the euclidean between two points (lon1, lat1) and
@@ -468,195 +867,183 @@ public class MapServer {
      */
 
     public static LinkedList<Long> findAndSetRoute(Map<String, Double> params) {
+        LiveGraph.Version version = liveGraph.current();
+        return findAndSetRoute(version, params, defaultAlgorithm(version.engine()),
+                LOCAL_SESSION);
+    }
 
-        clearRoute();
-
-        visited = new HashSet<SearchNode>();
-        dist = new HashMap<SearchNode, Double>();
-        prev = new HashMap<SearchNode, SearchNode>();
-        fringe = new PriorityQueue<SearchNode>();
-        distToEnd = new HashMap<SearchNode, Double>();
-
-        HashMap<String, Node> map = g.getMap();
-
-        Connection neighbors = g.getWays();
-
-        Node startNode = getClosestNode(params.get("start_lat"), params.get("start_lon"));
-        Node end = getClosestNode(params.get("end_lat"), params.get("end_lon"));
-        endNode = end;
-
-        SearchNode v = new SearchNode(startNode, 0.0, null);
-        SearchNode vv = new SearchNode(new Node(startNode.getId(), 400.0, 400.0), 2.3, v);
-        dist.put(v, 0.0);
-        fringe.add(v);
-
-        System.out.println();
-
-        System.out.println("Start Node -----> " + startNode.getId());
-        System.out.println("End Node ------> " + end.getId());
-
-        int count = 0;
-
-
-       /* Node gg = map.get("760706748");
-        for (String x : neighbors.get(String.valueOf(gg.getId()))) {
-            Node m = map.get(x);
-            System.out.println(m.getId() + ": " + getDistance(m, gg));
-        }*/
-
-        while (!fringe.isEmpty() && count < 5000000) {
-
-            v = fringe.remove();
-            //System.out.println(v.getNode().getId());
-            //System.out.println(v);
-
-            if (visited.contains(v)) {
-                //continue;
-                continue;
-            }
-
-            /*if (v.getNode().getId() == (Long.parseLong("760706748"))) {
-                System.out.println(neighbors.get(String.valueOf(v.getNode().getId())));
-                break;
-            }*/
-
-            visited.add(v);
-
-            if (v.getNode() == end) {
-                break;
-            }
-
-            //System.out.println(neighbors.get(String.valueOf(v.getNode().getId())));
-            double toV = dist.get(v);
-
-            for (String id : neighbors.get(String.valueOf(v.getNode().getId()))) {
-
-                Node a = map.get(id);
-                double distance = toV + getDistance(a, v.getNode());
-                double cdist = v.getDist() + getDistance(a, v.getNode());
-
-                if (cdist > distance) {
-                    continue;
-                }
+    /**
+     * Like findAndSetRoute(params), but searches with the given algorithm.
+     *
+     * @throws IllegalArgumentException If the engine does not support the algorithm.
+     */
+    public static LinkedList<Long> findAndSetRoute(Map<String, Double> params,
+                                                   RoutingEngine.Algorithm algorithm) {
+        return findAndSetRoute(liveGraph.current(), params, algorithm, LOCAL_SESSION);
+    }
 
-                SearchNode c = new SearchNode(a, cdist, v);
+    /**
+     * Like findAndSetRoute(params, algorithm), but routes on the given version of the map and
+     * sets the route of the given session.
+     */
+    private static LinkedList<Long> findAndSetRoute(LiveGraph.Version version,
+                                                    Map<String, Double> params,
+                                                    RoutingEngine.Algorithm algorithm,
+                                                    String session) {
+        RoutingEngine engine = version.engine();
+        CompactGraph graph = engine.getGraph();
+        KdTree index = version.db().getIndex();
+        int startNode = index.nearest(params.get("start_lat"), params.get("start_lon"));
+        int endNode = index.nearest(params.get("end_lat"), params.get("end_lon"));
+
+        long start = System.nanoTime();
+        LinkedList<Long> path = engine.route(startNode, endNode, algorithm);
+        long elapsed = System.nanoTime() - start;
+        String name = algorithm.name().toLowerCase();
+        metrics.histogram("route_search_duration_seconds", "Time taken by the route search.",
+                "algorithm", name).recordNanos(elapsed);
+        metrics.histogram("route_settled_nodes", "Nodes settled by each route search.",
+                "algorithm", name).record(engine.lastSettled());
+        metrics.histogram("route_peak_fringe_nodes",
+                "The most nodes waiting in the search queue during each route search.",
+                "algorithm", name).record(engine.lastPeakFringe());
+        routeSessions.set(session, RouteOverlay.build(graph, path, tileTree));
+        return path;
+    }
 
-                if (c.equals(v.getPrevious())) {
-                    continue;
-                }
+    /**
+     * Lengths of the shortest routes from every source point to every target point. Each point
+     * is snapped to its closest node once, and the routes from one source are all found by a
+     * single search, with the searches for different sources run in parallel on all cores.
+     *
+     * @param sources Points as {lat, lon} pairs.
+     * @param targets Points as {lat, lon} pairs.
+     * @return matrix[i][j], the route length from sources[i] to targets[j] in the units of
+     * RoutingEngine.distance, or Double.POSITIVE_INFINITY if there is no route.
+     */
+    public static double[][] getDistanceMatrix(double[][] sources, double[][] targets) {
+        LiveGraph.Version version = liveGraph.current();
+        return version.engine().distanceMatrix(snap(version, sources), snap(version, targets));
+    }
 
-                if (!dist.containsKey(c) || distance < dist.get(c)) {
-                    dist.put(c, distance);
-                    //visited.remove(c);
-                    //fringe.remove(c);
-                    fringe.add(c);
-                    prev.put(c, v);
-                }
-            }
-            count++;
+    /**
+     * The closest node of each {lat, lon} point, in the graph of the given version.
+     */
+    private static int[] snap(LiveGraph.Version version, double[][] points) {
+        KdTree index = version.db().getIndex();
+        int[] nodes = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            nodes[i] = index.nearest(points[i][0], points[i][1]);
         }
+        return nodes;
+    }
 
-
-        LinkedList<Long> path = new LinkedList<Long>();
-        while (v.getNode() != startNode) {
-            path.addFirst(v.getNode().getId());
-            v = prev.get(v);
+    private static long[] ids(CompactGraph graph, int[] nodes) {
+        long[] ids = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            ids[i] = graph.id(nodes[i]);
         }
-        path.addFirst(startNode.getId());
-
-        System.out.println(path);
-        return path;
-
-        /*while (current.getNode().getId() != end.getId()) {
-
-            current = fringe.remove();
-
-            //System.out.println(current.getNode().getId());
-
-            for (String id : neighbors.get(String.valueOf(current.getNode().getId()))) {
-                Node a = map.get(id);
-                double distance = current.getDist() + getDistance(a, current.getNode());
-                SearchNode child = new SearchNode(a, distance, current);
-
-
-                if (!visited.contains(child)) {
-                    fringe.add(child);
-                    visited.add(child);
-                    dist.put(child, distance);
-                } else if (dist.get(child) > distance) {
-                    fringe.add(child);
-                    dist.put(child, distance);
-                }
-            }
+        return ids;
+    }
 
-        }
+    /**
+     * The algorithm routes are found with when none is asked for: the configured one if the
+     * engine supports it, which a hierarchy may not while it is rebuilt after a change, and
+     * otherwise the fastest the engine supports.
+     */
+    private static RoutingEngine.Algorithm defaultAlgorithm(RoutingEngine engine) {
+        return routeAlgorithm != null && engine.supports(routeAlgorithm) ? routeAlgorithm
+                : engine.defaultAlgorithm();
+    }
 
-        while (current != null) {
-            route.addFirst(current.getNode().getId());
-            current = current.getPrevious();
-        }
+    /**
+     * The routing engine built over the server's current graph; safe to share between threads.
+     */
+    public static RoutingEngine getEngine() {
+        return liveGraph.current().engine();
+    }
 
-        return route;*/
+    /**
+     * The map data the server answers from, and the changes being applied to it.
+     */
+    public static LiveGraph getLiveGraph() {
+        return liveGraph;
     }
 
-    public static Node getEndNode() {
-        return endNode;
+    /**
+     * The server's metrics, as served at /metrics.
+     */
+    public static Metrics getMetrics() {
+        return metrics;
     }
 
-    public static double getDisToEnd(SearchNode n) {
-        double dis;
-        if (!distToEnd.containsKey(n)) {
-            dis = getDistance(n.getNode(), endNode);
-            distToEnd.put(n, dis);
-            return dis;
-        } else {
-            return distToEnd.get(n);
-        }
+    /**
+     * The cache of decoded map tiles used by getMapRaster.
+     */
+    public static TileCache getTileCache() {
+        return tileCache;
     }
 
-    public static double getDis(SearchNode n) {
-        return dist.get(n);
+    /**
+     * The cache of finished /raster responses.
+     */
+    public static RasterCache getRasterCache() {
+        return rasterCache;
     }
 
+    /**
+     * The routes of all clients, by session.
+     */
+    public static RouteSessions getRouteSessions() {
+        return routeSessions;
+    }
 
     /**
-     * Clear the current found route, if it exists.
+     * Clear the route set through findAndSetRoute, if it exists.
      */
     public static void clearRoute() {
-        route = new LinkedList<Long>();
+        routeSessions.remove(LOCAL_SESSION);
     }
 
-    public static Node getClosestNode(double lat, double lon) {
-        HashMap<String, Node> map = g.getMap();
-        double minDistance = 9999999;
-        String minNode = "";
-
-        for (Map.Entry<String, Node> entry : map.entrySet()) {
-            Node n = entry.getValue();
-            double currentDistance = distanceFromNode(n, lat, lon);
-            if (currentDistance < minDistance) {
-                minDistance = currentDistance;
-                minNode = entry.getKey();
-            }
-        }
-        return map.get(minNode);
+    /**
+     * Finds the graph node closest to the given point.
+     *
+     * @return The index of the closest node in the CompactGraph.
+     */
+    public static int getClosestNode(double lat, double lon) {
+        return liveGraph.current().db().getIndex().nearest(lat, lon);
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect the names of OSM locations that prefix-match the query string, most common
+     * first, in time independent of the number of locations.
      *
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
-     * @return A <code>List</code> of the full names of locations whose cleaned name matches the
-     * cleaned <code>prefix</code>.
+     * @return A <code>List</code> of up to SEARCH_LIMIT distinct full names of locations whose
+     * cleaned name starts with the cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return new LinkedList<>();
+        return liveGraph.current().db().getPrefixIndex().complete(prefix, SEARCH_LIMIT);
+    }
+
+    /**
+     * Collect the names of OSM locations whose cleaned name is within a few edits of the cleaned
+     * query string, closest first and then most common first.
+     *
+     * @param query       Possibly misspelled name searched for.
+     * @param maxDistance Insertions, deletions and substitutions allowed, at most
+     *                    PrefixIndex.MAX_FUZZY_DISTANCE.
+     * @return A <code>List</code> of up to SEARCH_LIMIT distinct full names of locations.
+     */
+    public static List<String> getLocationsByDistance(String query, int maxDistance) {
+        return liveGraph.current().db().getPrefixIndex().fuzzy(query, maxDistance,
+                SEARCH_LIMIT);
     }
 
     /**
      * Collect all locations that match a cleaned <code>locationName</code>, and return
-     * information about each node that matches.
+     * information about each node that matches, with a single hash lookup.
      *
      * @param locationName A full name of a location searched for.
      * @return A list of locations whose cleaned name matches the
@@ -668,19 +1055,7 @@ public class MapServer {
      * "id" -> Number, The id of the node. <br>
      */
 
-    public static double getDistance(Node a, Node b) {
-        double xDist = b.getLon() - a.getLon();
-        double yDist = b.getLat() - a.getLat();
-        return Math.sqrt(xDist * xDist + yDist * yDist);
-    }
-
-    public static double distanceFromNode(Node n, double lat, double lon) {
-        double xDist = n.getLon() - lon;
-        double yDist = n.getLat() - lat;
-        return Math.sqrt(xDist * xDist + yDist * yDist);
-    }
-
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        return liveGraph.current().db().getNameIndex().find(locationName);
     }
 }
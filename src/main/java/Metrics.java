@@ -0,0 +1,317 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of named counters, gauges and histograms, written out in the Prometheus text
+ * exposition format by scrape(), for /metrics.
+ * <p>
+ * Meters follow the Micrometer model: asking for a meter by name and labels returns the one
+ * registered under them, creating it the first time, so callers may look meters up on every
+ * use or keep them. Counters and histograms are updated without locks. Gauges and function
+ * counters are read from a callback at scrape time, which lets values other classes already
+ * keep, such as cache hit counts, be exported without copying them.
+ * </p>
+ * <p>
+ * A Histogram counts values in logarithmic buckets, eight per power of two, so quantiles are
+ * known to within about 6% for any value from nanoseconds to days and recording one costs a
+ * few atomic increments. Quantiles cover roughly the last one to two minutes, kept as a
+ * current and a previous bucket array that rotate every minute; the sum and count cover the
+ * whole run, as Prometheus expects. Histograms are exported as summaries with the 0.5, 0.99
+ * and 0.999 quantiles.
+ * </p>
+ */
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /* Buckets per power of two: the top SUB_BITS bits of the mantissa pick one. */
+    private static final int SUB_BITS = 3;
+    private static final int MIN_EXPONENT = -32;
+    private static final int MAX_EXPONENT = 48;
+    private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT + 1) << SUB_BITS;
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /* Families by name, in registration order; each holds its series by label string. */
+    private final Map<String, Family> families = new LinkedHashMap<String, Family>();
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long n) {
+            count.add(n);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * A distribution of recorded values, such as request latencies in seconds.
+     */
+    public static final class Histogram {
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+        private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+        private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+        private volatile long rotatedAt = System.nanoTime();
+
+        /**
+         * Records one value; values at or below zero count as the smallest bucket.
+         */
+        public void record(double value) {
+            long now = System.nanoTime();
+            if (now - rotatedAt >= WINDOW_NANOS) {
+                rotate(now);
+            }
+            current.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        /**
+         * Records a duration, in seconds.
+         */
+        public void recordNanos(long nanos) {
+            record(nanos / 1e9);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public double sum() {
+            return sum.sum();
+        }
+
+        /**
+         * The value below which the given fraction of the recent values lie, or NaN if
+         * nothing was recorded recently.
+         */
+        public double quantile(double q) {
+            AtomicLongArray recent = current;
+            AtomicLongArray older = previous;
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = recent.get(i) + older.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return Double.NaN;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return (lowerBound(i) + lowerBound(i + 1)) / 2;
+                }
+            }
+            return lowerBound(BUCKETS);
+        }
+
+        private synchronized void rotate(long now) {
+            if (now - rotatedAt < WINDOW_NANOS) {
+                return;
+            }
+            previous = now - rotatedAt < 2 * WINDOW_NANOS ? current
+                    : new AtomicLongArray(BUCKETS);
+            current = new AtomicLongArray(BUCKETS);
+            rotatedAt = now;
+        }
+
+        private static int bucket(double value) {
+            if (!(value > 0)) {
+                return 0;
+            }
+            int exponent = Math.getExponent(value);
+            if (exponent < MIN_EXPONENT) {
+                return 0;
+            }
+            if (exponent > MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            long mantissa = Double.doubleToRawLongBits(value) >>> (52 - SUB_BITS)
+                    & ((1 << SUB_BITS) - 1);
+            return (exponent - MIN_EXPONENT) << SUB_BITS | (int) mantissa;
+        }
+
+        private static double lowerBound(int bucket) {
+            int exponent = (bucket >> SUB_BITS) + MIN_EXPONENT;
+            int sub = bucket & ((1 << SUB_BITS) - 1);
+            return Math.scalb(1.0 + (double) sub / (1 << SUB_BITS), exponent);
+        }
+    }
+
+    /**
+     * The counter with the given name and labels.
+     *
+     * @param labels Label names and values, alternating.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) series(name, help, "counter", labels, Counter::new);
+    }
+
+    /**
+     * Exports a count kept elsewhere as a counter, read from value at every scrape. Replaces
+     * any callback registered under the same name and labels.
+     */
+    public void functionCounter(String name, String help, DoubleSupplier value,
+                                String... labels) {
+        register(name, help, "counter", labels, value);
+    }
+
+    /**
+     * Exports a value that can go up and down, read from value at every scrape. Replaces any
+     * callback registered under the same name and labels.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, "gauge", labels, value);
+    }
+
+    /**
+     * The histogram with the given name and labels.
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) series(name, help, "summary", labels, Histogram::new);
+    }
+
+    /**
+     * Every meter in the Prometheus text format, version 0.0.4.
+     */
+    public String scrape() {
+        List<Family> snapshot;
+        synchronized (families) {
+            snapshot = new ArrayList<Family>(families.values());
+        }
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : snapshot) {
+            out.append("# HELP ").append(family.name).append(' ')
+                    .append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type)
+                    .append('\n');
+            List<Map.Entry<String, Object>> series;
+            synchronized (families) {
+                series = new ArrayList<Map.Entry<String, Object>>(family.series.entrySet());
+            }
+            for (Map.Entry<String, Object> entry : series) {
+                String labels = entry.getKey();
+                Object meter = entry.getValue();
+                if (meter instanceof Counter) {
+                    sample(out, family.name, labels, null, ((Counter) meter).count());
+                } else if (meter instanceof DoubleSupplier) {
+                    sample(out, family.name, labels, null,
+                            ((DoubleSupplier) meter).getAsDouble());
+                } else {
+                    Histogram histogram = (Histogram) meter;
+                    for (double q : QUANTILES) {
+                        sample(out, family.name, labels, "quantile=\"" + q + "\"",
+                                histogram.quantile(q));
+                    }
+                    sample(out, family.name + "_sum", labels, null, histogram.sum());
+                    sample(out, family.name + "_count", labels, null, histogram.count());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Object series(String name, String help, String type, String[] labels,
+                          Supplier<Object> create) {
+        String key = labelString(labels);
+        synchronized (families) {
+            return family(name, help, type).series.computeIfAbsent(key, k -> create.get());
+        }
+    }
+
+    private void register(String name, String help, String type, String[] labels,
+                          DoubleSupplier value) {
+        String key = labelString(labels);
+        synchronized (families) {
+            family(name, help, type).series.put(key, value);
+        }
+    }
+
+    /* Callers hold the families lock. */
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, help, type);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already a " + family.type);
+        }
+        return family;
+    }
+
+    private static String labelString(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name, value pairs");
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\")
+                    .replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return key.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extra,
+                               double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            out.append('{').append(labels);
+            if (extra != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extra);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6g", value));
+        }
+        out.append('\n');
+    }
+
+    /**
+     * The series sharing one metric name.
+     */
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> series = new LinkedHashMap<String, Object>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exact lookup of Locations by cleaned name (see GraphDB.cleanString). Each distinct cleaned
+ * name maps to the indices of its locations in one shared int array, so a lookup is one hash
+ * probe followed by reading a contiguous run of records, without scanning any nodes.
+ */
+public class NameIndex {
+
+    private final Locations locations;
+    /* Location indices grouped by cleaned name, ascending OSM id within a group. */
+    private final int[] matches;
+    /* Cleaned name -> {start, end} of its group in matches. */
+    private final HashMap<String, int[]> groups;
+
+    public NameIndex(Locations locations) {
+        this.locations = locations;
+        int k = locations.size();
+        HashMap<String, List<Integer>> byName = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < k; i++) {
+            byName.computeIfAbsent(GraphDB.cleanString(locations.name(i)),
+                    name -> new ArrayList<Integer>(1)).add(i);
+        }
+        matches = new int[k];
+        groups = new HashMap<String, int[]>(2 * byName.size());
+        int pos = 0;
+        for (Map.Entry<String, List<Integer>> e : byName.entrySet()) {
+            int start = pos;
+            for (int i : e.getValue()) {
+                matches[pos++] = i;
+            }
+            groups.put(e.getKey(), new int[] {start, pos});
+        }
+    }
+
+    /**
+     * The locations whose cleaned name equals the cleaned locationName, in ascending OSM id
+     * order, each as a map with "lat", "lon", "name" and "id"; none for a null locationName.
+     */
+    public List<Map<String, Object>> find(String locationName) {
+        if (locationName == null) {
+            return Collections.emptyList();
+        }
+        int[] group = groups.get(GraphDB.cleanString(locationName));
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(group[1] - group[0]);
+        for (int j = group[0]; j < group[1]; j++) {
+            int i = matches[j];
+            Map<String, Object> location = new LinkedHashMap<String, Object>(8);
+            location.put("lat", locations.lat(i));
+            location.put("lon", locations.lon(i));
+            location.put("name", locations.name(i));
+            location.put("id", locations.id(i));
+            result.add(location);
+        }
+        return result;
+    }
+}
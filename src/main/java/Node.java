@@ -53,6 +53,14 @@ public class Node implements Comparable<Node> {
         this.lon = lon;
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
     public void addConnection(Connection x) {
         connectSet.add(x);
     }
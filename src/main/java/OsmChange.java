@@ -0,0 +1,166 @@
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * The edits in an OSM change file, as published by the OSM replication feeds and written by
+ * editors and osmosis: an osmChange document of create, modify and delete sections, each
+ * holding the full new state of the nodes and ways it touches. See
+ * <a href="http://wiki.openstreetmap.org/wiki/OsmChange">the osmChange format</a>.
+ * <p>
+ * A change is read into the new state of every node and way it mentions, for OsmData.apply.
+ * Later actions on an element override earlier ones in the same file. As in MapDBHandler, a
+ * way counts as a road when it has a highway tag of an allowed type and at least two nodes; a
+ * way that is created or modified into anything else is recorded like a deleted one, so it
+ * stops being a road if it was one. Relations are ignored.
+ * </p>
+ */
+public class OsmChange {
+
+    /* New state of each edited node, or null if it was deleted. */
+    private final TreeMap<Long, Node> nodes = new TreeMap<Long, Node>();
+    /* Refs of each edited way that is a road, or null if it was deleted or is not a road. */
+    private final LinkedHashMap<Long, long[]> ways = new LinkedHashMap<Long, long[]>();
+
+    private OsmChange() {
+    }
+
+    /**
+     * Reads a change file, gzip compressed if its name ends with ".gz".
+     *
+     * @throws IOException If the file cannot be read or is not well-formed.
+     */
+    public static OsmChange read(File file) throws IOException {
+        OsmChange change = new OsmChange();
+        try (InputStream in = open(file)) {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, change.new Handler());
+        } catch (ParserConfigurationException | SAXException | RuntimeException e) {
+            throw new IOException("Could not read OSM change " + file, e);
+        }
+        return change;
+    }
+
+    private static InputStream open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        return file.getName().endsWith(".gz") ? new GZIPInputStream(in) : in;
+    }
+
+    /**
+     * Number of nodes the change creates, modifies or deletes.
+     */
+    public int nodeEdits() {
+        return nodes.size();
+    }
+
+    /**
+     * Number of ways the change creates, modifies or deletes.
+     */
+    public int wayEdits() {
+        return ways.size();
+    }
+
+    /**
+     * The new state of each edited node by id, in id order; null for deleted nodes.
+     */
+    SortedMap<Long, Node> nodes() {
+        return nodes;
+    }
+
+    /**
+     * The node refs of each edited way by id, in file order; null for ways that were deleted
+     * or are not roads.
+     */
+    Map<Long, long[]> ways() {
+        return ways;
+    }
+
+    /**
+     * Collects the elements of the osmChange document into nodes and ways.
+     */
+    private final class Handler extends DefaultHandler {
+        private boolean deleting;
+        private Node node;
+        private long wayId;
+        private boolean inWay;
+        private boolean road;
+        private long[] refs = new long[64];
+        private int refCount;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            switch (qName) {
+                case "create":
+                case "modify":
+                    deleting = false;
+                    break;
+                case "delete":
+                    deleting = true;
+                    break;
+                case "node":
+                    long nodeId = Long.parseLong(attributes.getValue("id"));
+                    if (deleting) {
+                        nodes.put(nodeId, null);
+                    } else {
+                        node = new Node(nodeId, Double.parseDouble(attributes.getValue("lat")),
+                                Double.parseDouble(attributes.getValue("lon")));
+                    }
+                    break;
+                case "way":
+                    wayId = Long.parseLong(attributes.getValue("id"));
+                    if (deleting) {
+                        ways.put(wayId, null);
+                    } else {
+                        inWay = true;
+                        road = false;
+                        refCount = 0;
+                    }
+                    break;
+                case "nd":
+                    if (inWay) {
+                        if (refCount == refs.length) {
+                            refs = Arrays.copyOf(refs, 2 * refCount);
+                        }
+                        refs[refCount++] = Long.parseLong(attributes.getValue("ref"));
+                    }
+                    break;
+                case "tag":
+                    String k = attributes.getValue("k");
+                    if (node != null && "name".equals(k)) {
+                        node.setName(attributes.getValue("v"));
+                    } else if (inWay && "highway".equals(k)) {
+                        road |= MapDBHandler.ALLOWED_HIGHWAY_TYPES.contains(
+                                attributes.getValue("v"));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (qName.equals("node") && node != null) {
+                nodes.put(node.getId(), node);
+                node = null;
+            } else if (qName.equals("way") && inWay) {
+                ways.put(wayId, road && refCount >= 2 ? Arrays.copyOf(refs, refCount) : null);
+                inWay = false;
+            }
+        }
+    }
+}
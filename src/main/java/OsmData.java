@@ -0,0 +1,302 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * The parts of an OSM file the map is built from, kept so that OSM change files can be applied
+ * without reading the whole file again: every node, whether or not it lies on a road, every
+ * road way with its node refs, and the named nodes. A CompactGraph only has the nodes on roads
+ * and no way structure, so a change that makes a way a road, or moves a way onto other nodes,
+ * could not be applied to the graph alone.
+ * <p>
+ * Instances are immutable. Nodes are kept sorted by id in parallel arrays, road ways in file
+ * order with their refs packed into one array, so a node costs 24 bytes and a way ref 8. The
+ * graph and locations built from the data are those OsmReader and MapDBHandler produce from
+ * an OSM file with the same contents.
+ * </p>
+ */
+public class OsmData {
+
+    private final long[] nodeIds;
+    private final double[] nodeLats;
+    private final double[] nodeLons;
+    private final long[] wayIds;
+    /* The refs of road way w are wayRefs[wayStarts[w], wayStarts[w + 1]). */
+    private final int[] wayStarts;
+    private final long[] wayRefs;
+    private final Locations locations;
+
+    private OsmData(long[] nodeIds, double[] nodeLats, double[] nodeLons, long[] wayIds,
+                    int[] wayStarts, long[] wayRefs, Locations locations) {
+        this.nodeIds = nodeIds;
+        this.nodeLats = nodeLats;
+        this.nodeLons = nodeLons;
+        this.wayIds = wayIds;
+        this.wayStarts = wayStarts;
+        this.wayRefs = wayRefs;
+        this.locations = locations;
+    }
+
+    /**
+     * Makes the data out of nodes in file order, sorting them by id; of a repeated id the last
+     * occurrence is kept. Road ways must each have at least two refs. The arrays are not
+     * copied and the node arrays are reordered.
+     */
+    static OsmData of(long[] nodeIds, double[] nodeLats, double[] nodeLons, long[] wayIds,
+                      int[] wayStarts, long[] wayRefs, Locations locations) {
+        int n = sortById(nodeIds, nodeLats, nodeLons);
+        if (n < nodeIds.length) {
+            nodeIds = Arrays.copyOf(nodeIds, n);
+            nodeLats = Arrays.copyOf(nodeLats, n);
+            nodeLons = Arrays.copyOf(nodeLons, n);
+        }
+        return new OsmData(nodeIds, nodeLats, nodeLons, wayIds, wayStarts, wayRefs, locations);
+    }
+
+    /**
+     * Number of nodes, on a road or not.
+     */
+    public int nodeCount() {
+        return nodeIds.length;
+    }
+
+    /**
+     * Number of road ways.
+     */
+    public int wayCount() {
+        return wayIds.length;
+    }
+
+    /**
+     * The named nodes, on a road or not.
+     */
+    public Locations locations() {
+        return locations;
+    }
+
+    /**
+     * Builds the road graph: the nodes on a road way, with an edge between each pair of
+     * consecutive refs of a way. Refs to nodes missing from the data are dropped.
+     */
+    public CompactGraph graph() {
+        int n = nodeIds.length;
+        /* Position of every ref among the nodes; -1 marks a node missing from the data. */
+        int[] at = new int[wayRefs.length];
+        boolean[] onRoad = new boolean[n];
+        for (int r = 0; r < wayRefs.length; r++) {
+            int position = Arrays.binarySearch(nodeIds, wayRefs[r]);
+            at[r] = position >= 0 ? position : -1;
+            if (position >= 0) {
+                onRoad[position] = true;
+            }
+        }
+        int kept = 0;
+        int[] index = new int[n];
+        for (int i = 0; i < n; i++) {
+            index[i] = onRoad[i] ? kept++ : -1;
+        }
+        long[] ids = new long[kept];
+        double[] lats = new double[kept];
+        double[] lons = new double[kept];
+        for (int i = 0; i < n; i++) {
+            if (onRoad[i]) {
+                ids[index[i]] = nodeIds[i];
+                lats[index[i]] = nodeLats[i];
+                lons[index[i]] = nodeLons[i];
+            }
+        }
+
+        int[] offsets = new int[kept + 1];
+        for (int w = 0; w < wayIds.length; w++) {
+            for (int r = wayStarts[w] + 1; r < wayStarts[w + 1]; r++) {
+                if (at[r - 1] >= 0 && at[r] >= 0) {
+                    offsets[index[at[r - 1]] + 1]++;
+                    offsets[index[at[r]] + 1]++;
+                }
+            }
+        }
+        for (int v = 0; v < kept; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] neighbors = new int[offsets[kept]];
+        int[] fill = Arrays.copyOf(offsets, kept);
+        for (int w = 0; w < wayIds.length; w++) {
+            for (int r = wayStarts[w] + 1; r < wayStarts[w + 1]; r++) {
+                if (at[r - 1] >= 0 && at[r] >= 0) {
+                    int a = index[at[r - 1]];
+                    int b = index[at[r]];
+                    neighbors[fill[a]++] = b;
+                    neighbors[fill[b]++] = a;
+                }
+            }
+        }
+
+        /* Sort each row and drop repeated neighbors, compacting the rows as we go. */
+        int edges = 0;
+        int start = 0;
+        for (int v = 0; v < kept; v++) {
+            int end = offsets[v + 1];
+            Arrays.sort(neighbors, start, end);
+            offsets[v] = edges;
+            for (int e = start; e < end; e++) {
+                if (e == start || neighbors[e] != neighbors[e - 1]) {
+                    neighbors[edges++] = neighbors[e];
+                }
+            }
+            start = end;
+        }
+        offsets[kept] = edges;
+
+        return new CompactGraph(ids, lats, lons, offsets, Arrays.copyOf(neighbors, edges));
+    }
+
+    /**
+     * The data with a change applied: every node and way the change mentions is replaced by
+     * its new state, or removed if it was deleted, and everything else is left as it is.
+     */
+    public OsmData apply(OsmChange change) {
+        SortedMap<Long, Node> nodeEdits = change.nodes();
+        Map<Long, long[]> wayEdits = change.ways();
+
+        /* Merge the sorted nodes with the edits, which iterate in id order. */
+        int capacity = nodeIds.length + nodeEdits.size();
+        long[] ids = new long[capacity];
+        double[] lats = new double[capacity];
+        double[] lons = new double[capacity];
+        int n = 0;
+        int i = 0;
+        Iterator<Map.Entry<Long, Node>> edits = nodeEdits.entrySet().iterator();
+        Map.Entry<Long, Node> edit = edits.hasNext() ? edits.next() : null;
+        while (i < nodeIds.length || edit != null) {
+            if (edit == null || i < nodeIds.length && nodeIds[i] < edit.getKey()) {
+                ids[n] = nodeIds[i];
+                lats[n] = nodeLats[i];
+                lons[n] = nodeLons[i];
+                n++;
+                i++;
+                continue;
+            }
+            if (i < nodeIds.length && nodeIds[i] == edit.getKey()) {
+                i++;
+            }
+            Node node = edit.getValue();
+            if (node != null) {
+                ids[n] = node.getId();
+                lats[n] = node.getLat();
+                lons[n] = node.getLon();
+                n++;
+            }
+            edit = edits.hasNext() ? edits.next() : null;
+        }
+
+        int ways = 0;
+        int refs = 0;
+        for (int w = 0; w < wayIds.length; w++) {
+            if (!wayEdits.containsKey(wayIds[w])) {
+                ways++;
+                refs += wayStarts[w + 1] - wayStarts[w];
+            }
+        }
+        for (long[] way : wayEdits.values()) {
+            if (way != null) {
+                ways++;
+                refs += way.length;
+            }
+        }
+        long[] newWayIds = new long[ways];
+        int[] newWayStarts = new int[ways + 1];
+        long[] newWayRefs = new long[refs];
+        int m = 0;
+        for (int w = 0; w < wayIds.length; w++) {
+            if (!wayEdits.containsKey(wayIds[w])) {
+                int length = wayStarts[w + 1] - wayStarts[w];
+                System.arraycopy(wayRefs, wayStarts[w], newWayRefs, newWayStarts[m], length);
+                newWayIds[m] = wayIds[w];
+                newWayStarts[m + 1] = newWayStarts[m] + length;
+                m++;
+            }
+        }
+        for (Map.Entry<Long, long[]> way : wayEdits.entrySet()) {
+            if (way.getValue() != null) {
+                long[] wayRefs = way.getValue();
+                System.arraycopy(wayRefs, 0, newWayRefs, newWayStarts[m], wayRefs.length);
+                newWayIds[m] = way.getKey();
+                newWayStarts[m + 1] = newWayStarts[m] + wayRefs.length;
+                m++;
+            }
+        }
+
+        return new OsmData(Arrays.copyOf(ids, n), Arrays.copyOf(lats, n),
+                Arrays.copyOf(lons, n), newWayIds, newWayStarts, newWayRefs,
+                applyToLocations(nodeEdits));
+    }
+
+    /**
+     * The locations with the nodes in nodeEdits replaced by their new state, if named.
+     */
+    private Locations applyToLocations(Map<Long, Node> nodeEdits) {
+        int capacity = locations.size() + nodeEdits.size();
+        long[] ids = new long[capacity];
+        double[] lats = new double[capacity];
+        double[] lons = new double[capacity];
+        String[] names = new String[capacity];
+        int k = 0;
+        for (int i = 0; i < locations.size(); i++) {
+            if (!nodeEdits.containsKey(locations.id(i))) {
+                ids[k] = locations.id(i);
+                lats[k] = locations.lat(i);
+                lons[k] = locations.lon(i);
+                names[k] = locations.name(i);
+                k++;
+            }
+        }
+        for (Node node : nodeEdits.values()) {
+            if (node != null && node.getName() != null && !node.getName().isEmpty()) {
+                ids[k] = node.getId();
+                lats[k] = node.getLat();
+                lons[k] = node.getLon();
+                names[k] = node.getName();
+                k++;
+            }
+        }
+        return Locations.of(Arrays.copyOf(ids, k), Arrays.copyOf(lats, k),
+                Arrays.copyOf(lons, k), Arrays.copyOf(names, k));
+    }
+
+    /**
+     * Sorts the nodes by id, keeping the last of any repeated id, and returns how many remain.
+     * Extracts are normally sorted already, which is checked first.
+     */
+    private static int sortById(long[] ids, double[] lats, double[] lons) {
+        int n = ids.length;
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) {
+            sorted = ids[i - 1] < ids[i];
+        }
+        if (!sorted) {
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            long[] byPosition = ids.clone();
+            /* Stable, so repeated ids stay in file order and the last one can be kept. */
+            Arrays.sort(order, (a, b) -> Long.compare(byPosition[a], byPosition[b]));
+            double[] latsByPosition = lats.clone();
+            double[] lonsByPosition = lons.clone();
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                int p = order[i];
+                if (m > 0 && ids[m - 1] == byPosition[p]) {
+                    m--;
+                }
+                ids[m] = byPosition[p];
+                lats[m] = latsByPosition[p];
+                lons[m] = lonsByPosition[p];
+                m++;
+            }
+            n = m;
+        }
+        return n;
+    }
+}
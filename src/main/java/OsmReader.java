@@ -0,0 +1,949 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming reader for OSM XML that builds the road graph and the named Locations in one pass
+ * over the file, without a DOM, a SAX parser or per-element Strings. The file is scanned in
+ * fixed-size blocks by a small hand-written XML tokenizer that only looks at the elements and
+ * attributes the map needs: ids and coordinates are parsed straight from the bytes into
+ * primitive arrays, way node refs go into one reusable long array, and a String is created only
+ * for node names and highway values. Memory is the block plus 24 bytes per node and 8 per node
+ * ref of a road way, instead of a HashMap entry and a Node per node and a HashSet per
+ * connection. What was read is kept as OsmData, which OSM changes can later be applied to.
+ * <p>
+ * The graph is the one MapDBHandler and CompactGraph.build produce from the same file: a way
+ * contributes a segment between each pair of consecutive node refs once it has a highway tag
+ * of an allowed type, only nodes on such segments are kept, and segments to nodes missing from
+ * the file are dropped. Unknown elements, comments, processing instructions and DOCTYPEs are
+ * skipped; attribute values may be single or double quoted and may contain character
+ * references.
+ * </p>
+ * <p>
+ * Large files can be read on several cores at once. The file is cut into byte ranges at the
+ * start tags of top-level node, way and relation elements, each range is scanned into its own
+ * Chunk on the common fork-join pool, and the chunks are merged in file order, so the result
+ * is the same as reading the file in one pass. A cut is found by searching for the next such
+ * start tag, which OSM files only have at the top level; a cut that lands inside a comment or
+ * CDATA section anyway is noticed when the range before it ends elsewhere, and the file is
+ * then read in one pass instead. <code>java OsmReader file.osm</code> checks that parallel
+ * reads of a file give exactly the graph and locations of the SAX MapDBHandler.
+ * </p>
+ */
+public class OsmReader {
+
+    private static final int BLOCK_BYTES = 1 << 20;
+    /* Files are split into parts of at least this size, so small files are read in one pass. */
+    private static final long MIN_PART_BYTES = 8 << 20;
+    private static final int SPLIT_WINDOW_BYTES = 1 << 16;
+
+    private static final byte[] NODE = ascii("node");
+    private static final byte[] WAY = ascii("way");
+    private static final byte[] RELATION = ascii("relation");
+    private static final byte[] ND = ascii("nd");
+    private static final byte[] TAG = ascii("tag");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] REF = ascii("ref");
+    private static final byte[] K = ascii("k");
+    private static final byte[] V = ascii("v");
+    private static final byte[] NAME = ascii("name");
+    private static final byte[] HIGHWAY = ascii("highway");
+    private static final byte[] COMMENT_START = ascii("<!--");
+    private static final byte[] COMMENT_END = ascii("-->");
+    private static final byte[] CDATA_START = ascii("<![CDATA[");
+    private static final byte[] CDATA_END = ascii("]]>");
+    private static final byte[] INSTRUCTION_END = ascii("?>");
+    private static final byte[] DECLARATION_END = ascii(">");
+
+    private static final int OUTSIDE = 0;
+    private static final int IN_NODE = 1;
+    private static final int IN_WAY = 2;
+    private static final int IN_OTHER = 3;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * What one read collected, in file order: every node, every road way with its node refs,
+     * and every named node.
+     */
+    static final class Chunk {
+        private long[] nodeIds = new long[1024];
+        private double[] nodeLats = new double[1024];
+        private double[] nodeLons = new double[1024];
+        private int nodes;
+
+        private long[] wayIds = new long[64];
+        private int[] wayStarts = new int[65];
+        private int ways;
+        private long[] wayRefs = new long[1024];
+
+        private long[] namedIds = new long[16];
+        private double[] namedLats = new double[16];
+        private double[] namedLons = new double[16];
+        private final List<String> names = new ArrayList<String>();
+
+        void addNode(long id, double lat, double lon) {
+            if (nodes == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, 2 * nodes);
+                nodeLats = Arrays.copyOf(nodeLats, 2 * nodes);
+                nodeLons = Arrays.copyOf(nodeLons, 2 * nodes);
+            }
+            nodeIds[nodes] = id;
+            nodeLats[nodes] = lat;
+            nodeLons[nodes] = lon;
+            nodes++;
+        }
+
+        void addWay(long id, long[] refs, int count) {
+            if (ways == wayIds.length) {
+                wayIds = Arrays.copyOf(wayIds, 2 * ways);
+                wayStarts = Arrays.copyOf(wayStarts, 2 * ways + 1);
+            }
+            int start = wayStarts[ways];
+            if (start + count > wayRefs.length) {
+                wayRefs = Arrays.copyOf(wayRefs, Math.max(2 * wayRefs.length, start + count));
+            }
+            System.arraycopy(refs, 0, wayRefs, start, count);
+            wayIds[ways] = id;
+            wayStarts[++ways] = start + count;
+        }
+
+        void addNamed(long id, double lat, double lon, String name) {
+            int k = names.size();
+            if (k == namedIds.length) {
+                namedIds = Arrays.copyOf(namedIds, 2 * k);
+                namedLats = Arrays.copyOf(namedLats, 2 * k);
+                namedLons = Arrays.copyOf(namedLons, 2 * k);
+            }
+            namedIds[k] = id;
+            namedLats[k] = lat;
+            namedLons[k] = lon;
+            names.add(name);
+        }
+    }
+
+    private final OsmData data;
+    private final CompactGraph graph;
+
+    private OsmReader(OsmData data) {
+        this.data = data;
+        this.graph = data.graph();
+    }
+
+    /**
+     * Reads the whole OSM file.
+     */
+    public static OsmReader read(File osm) throws IOException {
+        return read(osm, 1);
+    }
+
+    /**
+     * Reads the OSM file in parallel, in as many parts as there are processors, but none
+     * smaller than MIN_PART_BYTES.
+     */
+    public static OsmReader readParallel(File osm) throws IOException {
+        long parts = Math.min(Runtime.getRuntime().availableProcessors(),
+                osm.length() / MIN_PART_BYTES);
+        return read(osm, (int) Math.max(1, parts));
+    }
+
+    /**
+     * Reads the OSM file in up to the given number of parts at once.
+     */
+    public static OsmReader read(File osm, int parts) throws IOException {
+        return read(osm, parts, BLOCK_BYTES);
+    }
+
+    /**
+     * Reads the OSM file in up to the given number of parts at once, reading each part in
+     * blocks of blockBytes. Small blocks put block boundaries all over a small file, for tests.
+     */
+    static OsmReader read(File osm, int parts, int blockBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(osm.toPath(), StandardOpenOption.READ)) {
+            if (parts <= 1) {
+                return read(channel, blockBytes);
+            }
+            long[] starts = split(channel, parts);
+            Part[] scanned = IntStream.range(0, starts.length - 1).parallel()
+                    .mapToObj(i -> scan(channel, starts[i], starts[i + 1], blockBytes))
+                    .toArray(Part[]::new);
+            List<Chunk> chunks = new ArrayList<Chunk>(scanned.length);
+            for (int i = 0; i < scanned.length; i++) {
+                Part part = scanned[i];
+                if (part.failure instanceof IOException) {
+                    throw (IOException) part.failure;
+                } else if (part.failure != null) {
+                    throw (RuntimeException) part.failure;
+                }
+                /* The previous parts were read exactly as one pass would have, so the part
+                 * must end where one pass finds the next element; otherwise the next cut was
+                 * not at an element and the next part is garbage. */
+                if (part.stop != starts[i + 1]) {
+                    return read(channel, blockBytes);
+                }
+                chunks.add(part.chunk);
+            }
+            return build(chunks);
+        }
+    }
+
+    private static OsmReader read(FileChannel channel, int blockBytes) throws IOException {
+        Chunk chunk = new Chunk();
+        new Scanner(channel, chunk, blockBytes).scan(0, channel.size());
+        return build(Collections.singletonList(chunk));
+    }
+
+    /**
+     * Cuts the file into at most the given number of non-empty ranges, each but the first
+     * starting at a node, way or relation start tag.
+     *
+     * @return The start of every range, followed by the file size.
+     */
+    private static long[] split(FileChannel channel, int parts) throws IOException {
+        long size = channel.size();
+        long[] starts = new long[parts + 1];
+        int n = 1;
+        for (int i = 1; i < parts; i++) {
+            long start = nextElement(channel, Math.max(starts[n - 1], size / parts * i));
+            if (start > starts[n - 1] && start < size) {
+                starts[n++] = start;
+            }
+        }
+        starts[n++] = size;
+        return Arrays.copyOf(starts, n);
+    }
+
+    /**
+     * The offset of the first node, way or relation start tag at or after from, or the file
+     * size if there is none.
+     */
+    private static long nextElement(FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        ByteBuffer window = ByteBuffer.allocate(SPLIT_WINDOW_BYTES);
+        byte[] bytes = window.array();
+        /* Enough of the window is kept for the next read to see a start tag cut at its end. */
+        int overlap = RELATION.length + 2;
+        long position = from;
+        while (position < size) {
+            window.clear();
+            while (window.hasRemaining()
+                    && channel.read(window, position + window.position()) > 0) {
+                continue;
+            }
+            int read = window.position();
+            boolean last = position + read >= size;
+            int scanEnd = last ? read : read - overlap;
+            for (int i = 0; i < scanEnd; i++) {
+                if (bytes[i] == '<' && (startTag(bytes, i + 1, read, NODE)
+                        || startTag(bytes, i + 1, read, WAY)
+                        || startTag(bytes, i + 1, read, RELATION))) {
+                    return position + i;
+                }
+            }
+            if (last) {
+                break;
+            }
+            position += scanEnd;
+        }
+        return size;
+    }
+
+    /**
+     * Whether bytes[at, limit) starts with the element name, followed by a space, '/' or '>'.
+     */
+    private static boolean startTag(byte[] bytes, int at, int limit, byte[] name) {
+        if (at + name.length >= limit) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (bytes[at + i] != name[i]) {
+                return false;
+            }
+        }
+        byte next = bytes[at + name.length];
+        return isSpace(next) || next == '/' || next == '>';
+    }
+
+    private static Part scan(FileChannel channel, long start, long end, int blockBytes) {
+        Part part = new Part();
+        try {
+            part.stop = new Scanner(channel, part.chunk, blockBytes).scan(start, end);
+        } catch (IOException | RuntimeException e) {
+            part.failure = e;
+        }
+        return part;
+    }
+
+    /**
+     * What scanning one range of a file produced: its chunk and the offset it stopped at, or
+     * what it failed with.
+     */
+    private static final class Part {
+        private final Chunk chunk = new Chunk();
+        private long stop;
+        private Exception failure;
+    }
+
+    /**
+     * The road graph read from the file.
+     */
+    public CompactGraph graph() {
+        return graph;
+    }
+
+    /**
+     * The named nodes read from the file.
+     */
+    public Locations locations() {
+        return data.locations();
+    }
+
+    /**
+     * Everything read from the file, for applying OSM changes to.
+     */
+    public OsmData data() {
+        return data;
+    }
+
+    /**
+     * Assembles the graph and locations out of chunks read from consecutive parts of a file,
+     * in file order. A node id that occurs more than once keeps its last coordinates.
+     */
+    static OsmReader build(List<Chunk> chunks) {
+        int total = 0;
+        int ways = 0;
+        int refs = 0;
+        int named = 0;
+        for (Chunk chunk : chunks) {
+            total += chunk.nodes;
+            ways += chunk.ways;
+            refs += chunk.wayStarts[chunk.ways];
+            named += chunk.names.size();
+        }
+        long[] ids = new long[total];
+        double[] lats = new double[total];
+        double[] lons = new double[total];
+        long[] wayIds = new long[ways];
+        int[] wayStarts = new int[ways + 1];
+        long[] wayRefs = new long[refs];
+        long[] namedIds = new long[named];
+        double[] namedLats = new double[named];
+        double[] namedLons = new double[named];
+        String[] names = new String[named];
+        int n = 0;
+        int w = 0;
+        int k = 0;
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.nodeIds, 0, ids, n, chunk.nodes);
+            System.arraycopy(chunk.nodeLats, 0, lats, n, chunk.nodes);
+            System.arraycopy(chunk.nodeLons, 0, lons, n, chunk.nodes);
+            n += chunk.nodes;
+            int refBase = wayStarts[w];
+            System.arraycopy(chunk.wayIds, 0, wayIds, w, chunk.ways);
+            System.arraycopy(chunk.wayRefs, 0, wayRefs, refBase, chunk.wayStarts[chunk.ways]);
+            for (int i = 1; i <= chunk.ways; i++) {
+                wayStarts[w + i] = refBase + chunk.wayStarts[i];
+            }
+            w += chunk.ways;
+            int count = chunk.names.size();
+            System.arraycopy(chunk.namedIds, 0, namedIds, k, count);
+            System.arraycopy(chunk.namedLats, 0, namedLats, k, count);
+            System.arraycopy(chunk.namedLons, 0, namedLons, k, count);
+            for (int i = 0; i < count; i++) {
+                names[k + i] = chunk.names.get(i);
+            }
+            k += count;
+        }
+        return new OsmReader(OsmData.of(ids, lats, lons, wayIds, wayStarts, wayRefs,
+                Locations.of(namedIds, namedLats, namedLons, names)));
+    }
+
+    /**
+     * Tokenizes OSM XML out of a file channel and records nodes, road ways and names in a chunk.
+     * Not thread-safe; each thread scans with its own Scanner.
+     */
+    static final class Scanner {
+        private final FileChannel channel;
+        private final Chunk chunk;
+
+        private ByteBuffer block;
+        private byte[] bytes;
+        /* bytes[pos, limit) is unread; bytes[0, pos) may be dropped on refill. */
+        private int pos;
+        private int limit;
+        /* File offset of bytes[0]. */
+        private long base;
+        private long fileEnd;
+        private boolean eof;
+        /* File offset of the element the scan stopped at. */
+        private long stop;
+
+        /* Attributes of the current start tag, as byte ranges into bytes. */
+        private int[] attributeStarts = new int[64];
+        private int attributes;
+
+        private int state = OUTSIDE;
+        private long wayId;
+        private long nodeId;
+        private double nodeLat;
+        private double nodeLon;
+        private String nodeName;
+        private long[] refs = new long[256];
+        private int refCount;
+
+        Scanner(FileChannel channel, Chunk chunk, int blockBytes) {
+            this.channel = channel;
+            this.chunk = chunk;
+            this.block = ByteBuffer.allocate(blockBytes);
+            this.bytes = block.array();
+        }
+
+        /**
+         * Reads the node, way and relation elements that start in the file range [start, end).
+         * start must be at the beginning of the file or of such an element; elements starting
+         * at or after end are left to whoever reads from there.
+         *
+         * @return The offset of the first of those elements, or the file size if there is none.
+         */
+        long scan(long start, long end) throws IOException {
+            base = start;
+            fileEnd = channel.size();
+            pos = 0;
+            limit = 0;
+            eof = false;
+            stop = fileEnd;
+            while (true) {
+                int open = indexOf((byte) '<', pos);
+                while (open < 0) {
+                    pos = limit;
+                    if (!refill()) {
+                        return fileEnd;
+                    }
+                    open = indexOf((byte) '<', pos);
+                }
+                pos = open;
+                if (!readMarkup(end)) {
+                    return stop;
+                }
+            }
+        }
+
+        /**
+         * Reads the markup starting at bytes[pos] == '<' and moves past it.
+         *
+         * @return False once an element starts at or after end, or the input is exhausted.
+         */
+        private boolean readMarkup(long end) throws IOException {
+            while (pos + 1 >= limit) {
+                if (!refill()) {
+                    return false;
+                }
+            }
+            byte next = bytes[pos + 1];
+            if (next == '!' || next == '?') {
+                return skipDeclaration();
+            }
+            int close = findTagEnd();
+            if (close < 0) {
+                return false;
+            }
+            int tagStart = pos;
+            pos = close + 1;
+            if (next == '/') {
+                endElement(tagStart + 2, close);
+                return true;
+            }
+            int nameEnd = tagStart + 1;
+            while (nameEnd < close && !isSpace(bytes[nameEnd]) && bytes[nameEnd] != '/') {
+                nameEnd++;
+            }
+            boolean empty = bytes[close - 1] == '/';
+            if (state == OUTSIDE && base + tagStart >= end
+                    && (equals(tagStart + 1, nameEnd, NODE) || equals(tagStart + 1, nameEnd, WAY)
+                    || equals(tagStart + 1, nameEnd, RELATION))) {
+                stop = base + tagStart;
+                return false;
+            }
+            readAttributes(nameEnd, empty ? close - 1 : close);
+            startElement(tagStart + 1, nameEnd);
+            if (empty) {
+                endElement(tagStart + 1, nameEnd);
+            }
+            return true;
+        }
+
+        private void startElement(int nameStart, int nameEnd) {
+            if (state == OUTSIDE) {
+                if (equals(nameStart, nameEnd, NODE)) {
+                    state = IN_NODE;
+                    nodeId = parseLong(ID);
+                    nodeLat = parseDouble(LAT);
+                    nodeLon = parseDouble(LON);
+                    nodeName = null;
+                } else if (equals(nameStart, nameEnd, WAY)) {
+                    state = IN_WAY;
+                    wayId = parseLong(ID);
+                    refCount = 0;
+                } else if (equals(nameStart, nameEnd, RELATION)) {
+                    state = IN_OTHER;
+                }
+            } else if (state == IN_WAY && equals(nameStart, nameEnd, ND)) {
+                if (refCount == refs.length) {
+                    refs = Arrays.copyOf(refs, 2 * refCount);
+                }
+                refs[refCount++] = parseLong(REF);
+            } else if (equals(nameStart, nameEnd, TAG)) {
+                int k = attribute(K);
+                if (k < 0) {
+                    return;
+                }
+                if (state == IN_NODE && equals(attributeValueStart(k), attributeValueEnd(k), NAME)) {
+                    nodeName = stringValue(V);
+                } else if (state == IN_WAY
+                        && equals(attributeValueStart(k), attributeValueEnd(k), HIGHWAY)
+                        && refCount >= 2
+                        && MapDBHandler.ALLOWED_HIGHWAY_TYPES.contains(stringValue(V))) {
+                    chunk.addWay(wayId, refs, refCount);
+                }
+            }
+        }
+
+        private void endElement(int nameStart, int nameEnd) {
+            if (state == IN_NODE && equals(nameStart, nameEnd, NODE)) {
+                chunk.addNode(nodeId, nodeLat, nodeLon);
+                if (nodeName != null && !nodeName.isEmpty()) {
+                    chunk.addNamed(nodeId, nodeLat, nodeLon, nodeName);
+                }
+                state = OUTSIDE;
+            } else if (state == IN_WAY && equals(nameStart, nameEnd, WAY)
+                    || state == IN_OTHER && equals(nameStart, nameEnd, RELATION)) {
+                state = OUTSIDE;
+            }
+        }
+
+        /**
+         * Skips a comment, processing instruction, CDATA section or DOCTYPE at bytes[pos].
+         */
+        private boolean skipDeclaration() throws IOException {
+            /* The kind of declaration is only known once its longest opening is buffered. */
+            while (pos + CDATA_START.length > limit) {
+                if (!refill()) {
+                    break;
+                }
+            }
+            byte[] terminator;
+            if (startsWith(pos, COMMENT_START)) {
+                terminator = COMMENT_END;
+            } else if (startsWith(pos, CDATA_START)) {
+                terminator = CDATA_END;
+            } else if (bytes[pos + 1] == '?') {
+                terminator = INSTRUCTION_END;
+            } else {
+                terminator = DECLARATION_END;
+            }
+            int from = pos + 2;
+            while (true) {
+                int found = indexOf(terminator, from);
+                if (found >= 0) {
+                    pos = found + terminator.length;
+                    return true;
+                }
+                int keep = Math.max(pos, limit - terminator.length);
+                int shift = keep - pos;
+                pos = keep;
+                if (!refill()) {
+                    return false;
+                }
+                from = pos + (shift > 0 ? 0 : 2);
+            }
+        }
+
+        /**
+         * Finds the '>' closing the tag that starts at bytes[pos], refilling or growing the
+         * block as needed; quoted attribute values may contain '>'.
+         *
+         * @return Its index, or -1 if the input ends first.
+         */
+        private int findTagEnd() throws IOException {
+            int i = pos + 1;
+            byte quote = 0;
+            while (true) {
+                for (; i < limit; i++) {
+                    byte b = bytes[i];
+                    if (quote != 0) {
+                        if (b == quote) {
+                            quote = 0;
+                        }
+                    } else if (b == '"' || b == '\'') {
+                        quote = b;
+                    } else if (b == '>') {
+                        return i;
+                    }
+                }
+                int scanned = i - pos;
+                if (!refill()) {
+                    return -1;
+                }
+                i = pos + scanned;
+            }
+        }
+
+        /**
+         * Records the name and value ranges of the attributes in bytes[from, to).
+         */
+        private void readAttributes(int from, int to) {
+            attributes = 0;
+            int i = from;
+            while (true) {
+                while (i < to && isSpace(bytes[i])) {
+                    i++;
+                }
+                int nameStart = i;
+                while (i < to && bytes[i] != '=' && !isSpace(bytes[i])) {
+                    i++;
+                }
+                int nameEnd = i;
+                while (i < to && bytes[i] != '\'' && bytes[i] != '"') {
+                    i++;
+                }
+                if (i >= to || nameStart == nameEnd) {
+                    return;
+                }
+                byte quote = bytes[i++];
+                int valueStart = i;
+                while (i < to && bytes[i] != quote) {
+                    i++;
+                }
+                if (attributes + 4 > attributeStarts.length) {
+                    attributeStarts = Arrays.copyOf(attributeStarts, 2 * attributes);
+                }
+                attributeStarts[attributes++] = nameStart;
+                attributeStarts[attributes++] = nameEnd;
+                attributeStarts[attributes++] = valueStart;
+                attributeStarts[attributes++] = i;
+                i++;
+            }
+        }
+
+        /**
+         * The position of the attribute with the given name among the current attributes, or
+         * -1 if the tag has none.
+         */
+        private int attribute(byte[] name) {
+            for (int a = 0; a < attributes; a += 4) {
+                if (equals(attributeStarts[a], attributeStarts[a + 1], name)) {
+                    return a;
+                }
+            }
+            return -1;
+        }
+
+        private int attributeValueStart(int a) {
+            return attributeStarts[a + 2];
+        }
+
+        private int attributeValueEnd(int a) {
+            return attributeStarts[a + 3];
+        }
+
+        private long parseLong(byte[] name) {
+            int a = attribute(name);
+            if (a < 0) {
+                throw new IllegalArgumentException("Missing " + ascii(name) + " attribute at "
+                        + (base + pos));
+            }
+            int i = attributeValueStart(a);
+            int end = attributeValueEnd(a);
+            boolean negative = i < end && bytes[i] == '-';
+            if (negative) {
+                i++;
+            }
+            if (i == end) {
+                throw new NumberFormatException("Empty " + ascii(name) + " at " + (base + pos));
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return Long.parseLong(stringValue(name));
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * Parses a decimal attribute. Plain decimals with at most 15 significant digits, which
+         * covers OSM coordinates, are read as an exact integer divided by an exact power of
+         * ten, which rounds exactly as Double.parseDouble does; anything else goes through
+         * Double.parseDouble.
+         */
+        private double parseDouble(byte[] name) {
+            int a = attribute(name);
+            if (a < 0) {
+                throw new IllegalArgumentException("Missing " + ascii(name) + " attribute at "
+                        + (base + pos));
+            }
+            int i = attributeValueStart(a);
+            int end = attributeValueEnd(a);
+            boolean negative = i < end && bytes[i] == '-';
+            if (negative) {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int decimals = -1;
+            for (; i < end; i++) {
+                byte b = bytes[i];
+                if (b == '.' && decimals < 0) {
+                    decimals = 0;
+                } else if (b >= '0' && b <= '9' && digits < 15) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (decimals >= 0) {
+                        decimals++;
+                    }
+                } else {
+                    return Double.parseDouble(stringValue(name));
+                }
+            }
+            if (digits == 0) {
+                return Double.parseDouble(stringValue(name));
+            }
+            double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+
+        /**
+         * The value of the named attribute as an XML parser reports it, with line breaks and
+         * tabs normalized to spaces and character references replaced, or null if the tag has
+         * no such attribute.
+         */
+        private String stringValue(byte[] name) {
+            int a = attribute(name);
+            if (a < 0) {
+                return null;
+            }
+            int start = attributeValueStart(a);
+            int end = attributeValueEnd(a);
+            String raw = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            if (raw.indexOf('\n') >= 0 || raw.indexOf('\r') >= 0 || raw.indexOf('\t') >= 0) {
+                raw = raw.replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ')
+                        .replace('\t', ' ');
+            }
+            return raw.indexOf('&') < 0 ? raw : unescape(raw);
+        }
+
+        /**
+         * Moves the unread bytes to the front of the block and reads more after them, growing
+         * the block if it is full.
+         *
+         * @return False if there was nothing more to read.
+         */
+        private boolean refill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            int unread = limit - pos;
+            if (pos == 0 && limit == bytes.length) {
+                ByteBuffer grown = ByteBuffer.allocate(2 * bytes.length);
+                grown.put(bytes, 0, limit);
+                block = grown;
+                bytes = block.array();
+            } else {
+                System.arraycopy(bytes, pos, bytes, 0, unread);
+                base += pos;
+            }
+            pos = 0;
+            limit = unread;
+            block.clear();
+            block.position(limit);
+            long filePosition = base + limit;
+            int read = filePosition >= fileEnd ? -1 : channel.read(block, filePosition);
+            if (read <= 0) {
+                eof = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        }
+
+        private int indexOf(byte b, int from) {
+            for (int i = from; i < limit; i++) {
+                if (bytes[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(byte[] pattern, int from) {
+            for (int i = from; i + pattern.length <= limit; i++) {
+                if (bytes[i] == pattern[0] && equals(i, i + pattern.length, pattern)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(int at, byte[] prefix) {
+            return at + prefix.length <= limit && equals(at, at + prefix.length, prefix);
+        }
+
+        private boolean equals(int start, int end, byte[] expected) {
+            if (end - start != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                if (bytes[start + i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Determinism check: reads an OSM file with the SAX MapDBHandler and then in parallel,
+     * with each given number of parts, and exits with status 1 unless every parallel read
+     * gives the same graph and locations.
+     *
+     * @param args The OSM file path, and optionally the part counts to try (by default 2, the
+     *             number of processors, and four times that).
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java OsmReader <file.osm> [parts...]");
+            System.exit(1);
+        }
+        File osm = new File(args[0]);
+        int processors = Runtime.getRuntime().availableProcessors();
+        int[] counts = new int[] {2, processors, 4 * processors};
+        if (args.length > 1) {
+            counts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                counts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.setProperty(GraphDB.PARSER_PROPERTY, "sax");
+        long start = System.currentTimeMillis();
+        GraphDB sax = new GraphDB(args[0], false);
+        System.out.println("sax: " + sax.getGraph().size() + " nodes, "
+                + sax.getGraph().edgeCount() + " edges, " + sax.getLocations().size()
+                + " locations in " + (System.currentTimeMillis() - start) + " ms");
+        boolean same = true;
+        for (int parts : counts) {
+            start = System.currentTimeMillis();
+            OsmReader reader = read(osm, parts);
+            long millis = System.currentTimeMillis() - start;
+            boolean match = reader.graph().fingerprint() == sax.getGraph().fingerprint()
+                    && reader.graph().size() == sax.getGraph().size()
+                    && reader.graph().edgeCount() == sax.getGraph().edgeCount()
+                    && sameLocations(reader.locations(), sax.getLocations());
+            System.out.println(parts + " parts: " + (match ? "same" : "DIFFERENT") + " in "
+                    + millis + " ms");
+            same &= match;
+        }
+        System.exit(same ? 0 : 1);
+    }
+
+    private static boolean sameLocations(Locations a, Locations b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.id(i) != b.id(i) || Double.compare(a.lat(i), b.lat(i)) != 0
+                    || Double.compare(a.lon(i), b.lon(i)) != 0 || !a.name(i).equals(b.name(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the XML character references in s: the five predefined entities and numeric
+     * references. Anything else is left as it is.
+     */
+    static String unescape(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int semicolon = c == '&' ? s.indexOf(';', i) : -1;
+            if (semicolon < 0) {
+                out.append(c);
+                i++;
+                continue;
+            }
+            String entity = s.substring(i + 1, semicolon);
+            String replacement = null;
+            switch (entity) {
+                case "amp":
+                    replacement = "&";
+                    break;
+                case "lt":
+                    replacement = "<";
+                    break;
+                case "gt":
+                    replacement = ">";
+                    break;
+                case "quot":
+                    replacement = "\"";
+                    break;
+                case "apos":
+                    replacement = "'";
+                    break;
+                default:
+                    try {
+                        if (entity.startsWith("#x")) {
+                            replacement = new String(Character.toChars(
+                                    Integer.parseInt(entity.substring(2), 16)));
+                        } else if (entity.startsWith("#")) {
+                            replacement = new String(Character.toChars(
+                                    Integer.parseInt(entity.substring(1))));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        replacement = null;
+                    }
+                    break;
+            }
+            if (replacement == null) {
+                out.append(c);
+                i++;
+            } else {
+                out.append(replacement);
+                i = semicolon + 1;
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String ascii(byte[] b) {
+        return new String(b, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,195 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes TYPE_INT_RGB images as 8-bit RGB PNGs with a configurable zlib compression level
+ * and scanline filter, so a deployment can trade CPU for bandwidth. Level 0 stores the pixels
+ * uncompressed; higher levels spend more CPU for smaller files. Which filter compresses best
+ * depends on the imagery; UP is a good default for map rasters. ImageIO's PNG writer offers
+ * neither knob on Java 8. An encoder is immutable and can be shared between threads.
+ */
+public class PngEncoder {
+
+    /**
+     * The PNG scanline filters. ADAPTIVE picks, per row, whichever of the other four gives
+     * the smallest sum of absolute differences, the heuristic libpng uses.
+     */
+    public enum Filter {
+        NONE, SUB, UP, PAETH, ADAPTIVE;
+
+        /**
+         * Looks a filter up by name, ignoring case.
+         *
+         * @throws IllegalArgumentException If there is no filter with that name.
+         */
+        public static Filter parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int BYTES_PER_PIXEL = 3;
+
+    private final int level;
+    private final Filter filter;
+
+    /**
+     * @param level  zlib compression level, from 0 (store) to 9 (smallest).
+     * @param filter Scanline filter applied before compression.
+     */
+    public PngEncoder(int level, Filter filter) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be in [0, 9]: " + level);
+        }
+        this.level = level;
+        this.filter = filter;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public Filter filter() {
+        return filter;
+    }
+
+    /**
+     * Writes image to out as a PNG. The stream is not closed.
+     *
+     * @param image A TYPE_INT_RGB image.
+     */
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("Only TYPE_INT_RGB images can be encoded");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8);
+        header.write(2);
+        header.write(0);
+        header.write(0);
+        header.write(0);
+        writeChunk(out, "IHDR", header.toByteArray(), 13);
+
+        int stride = width * BYTES_PER_PIXEL;
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(
+                level == 0 ? (stride + 1) * height + 64 : (stride + 1) * height / 4 + 64);
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream z = new DeflaterOutputStream(idat, deflater, 1 << 16)) {
+            byte[] prior = new byte[stride];
+            byte[] row = new byte[stride];
+            byte[] filtered = new byte[stride + 1];
+            byte[] candidate = new byte[stride + 1];
+            for (int y = 0; y < height; y++) {
+                int base = y * width;
+                for (int x = 0, i = 0; x < width; x++) {
+                    int rgb = pixels[base + x];
+                    row[i++] = (byte) (rgb >>> 16);
+                    row[i++] = (byte) (rgb >>> 8);
+                    row[i++] = (byte) rgb;
+                }
+                if (filter == Filter.ADAPTIVE) {
+                    long best = Long.MAX_VALUE;
+                    for (int f = 0; f < 4; f++) {
+                        long cost = applyFilter(f, row, prior, candidate);
+                        if (cost < best) {
+                            best = cost;
+                            byte[] swap = filtered;
+                            filtered = candidate;
+                            candidate = swap;
+                        }
+                    }
+                } else {
+                    applyFilter(filter.ordinal(), row, prior, filtered);
+                }
+                z.write(filtered, 0, stride + 1);
+
+                byte[] swap = prior;
+                prior = row;
+                row = swap;
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IDAT", idat.toByteArray(), idat.size());
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    /**
+     * Filters row with PNG filter type f (0 none, 1 sub, 2 up, 3 paeth) into out, whose first
+     * byte receives the filter type.
+     *
+     * @return The sum of the absolute values of the filtered bytes, read as signed.
+     */
+    private static long applyFilter(int f, byte[] row, byte[] prior, byte[] out) {
+        out[0] = (byte) (f == 3 ? 4 : f);
+        long cost = 0;
+        for (int i = 0; i < row.length; i++) {
+            int a = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xff : 0;
+            int b = prior[i] & 0xff;
+            int predictor;
+            switch (f) {
+                case 1:
+                    predictor = a;
+                    break;
+                case 2:
+                    predictor = b;
+                    break;
+                case 3:
+                    int c = i >= BYTES_PER_PIXEL ? prior[i - BYTES_PER_PIXEL] & 0xff : 0;
+                    predictor = paeth(a, b, c);
+                    break;
+                default:
+                    predictor = 0;
+                    break;
+            }
+            byte value = (byte) (row[i] - predictor);
+            out[i + 1] = value;
+            cost += Math.abs(value);
+        }
+        return cost;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        writeInt(out, length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+}
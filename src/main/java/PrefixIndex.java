@@ -0,0 +1,347 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Autocompletion over the names of Locations. The distinct names are indexed by their cleaned
+ * form (see GraphDB.cleanString) in a trie packed into flat arrays, and every trie node keeps
+ * its best TOP_K completions, so a completion costs one walk down the prefix plus copying out
+ * the answer, whatever the number of names.
+ * <p>
+ * Names are ranked by how many locations carry them, so chains and streets with many named
+ * nodes come first, then alphabetically by cleaned and then by actual name. Trie nodes are
+ * numbered breadth first, which puts the children of a node next to each other, sorted by
+ * character: the children of node v are the nodes childStart[v] up to childStart[v + 1].
+ * Each node also covers a contiguous run of the names sorted by cleaned name, used to answer
+ * requests for more than TOP_K completions.
+ * </p>
+ * <p>
+ * The same trie answers typo-tolerant queries. A fuzzy search walks it depth first, carrying
+ * one row of the Levenshtein table of the query against the path so far, so every prefix
+ * shared by many names is compared once. The walk abandons a subtree as soon as every entry
+ * of the row exceeds the allowed distance, which is what keeps it to a small part of the trie
+ * for distances of 1 or 2.
+ * </p>
+ */
+public class PrefixIndex {
+
+    /**
+     * Completions precomputed per trie node; longer lists are collected on demand.
+     */
+    public static final int TOP_K = 10;
+
+    /**
+     * Largest edit distance fuzzy searches accept; beyond it nearly everything short matches.
+     */
+    public static final int MAX_FUZZY_DISTANCE = 2;
+
+    /* Distinct names, in rank order. */
+    private final String[] names;
+    /* rankOfSorted[i] = rank of the i-th name in cleaned name order. */
+    private final int[] rankOfSorted;
+
+    private final char[] labels;
+    private final int[] childStart;
+    private final int[] rangeStart;
+    private final int[] rangeEnd;
+    /* The names whose cleaned form ends at node v are rangeStart[v] up to terminalEnd[v]. */
+    private final int[] terminalEnd;
+    private final int maxKeyLength;
+    private final int[] topStart;
+    private final int[] top;
+
+    public PrefixIndex(Locations locations) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < locations.size(); i++) {
+            counts.merge(locations.name(i), 1, Integer::sum);
+        }
+        int k = counts.size();
+        Name[] distinct = new Name[k];
+        int n = 0;
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            distinct[n++] = new Name(e.getKey(), e.getValue());
+        }
+        Arrays.sort(distinct, Comparator.<Name>comparingInt(name -> -name.count)
+                .thenComparing(name -> name.key).thenComparing(name -> name.name));
+        names = new String[k];
+        String[] keys = new String[k];
+        Integer[] sorted = new Integer[k];
+        for (int rank = 0; rank < k; rank++) {
+            names[rank] = distinct[rank].name;
+            keys[rank] = distinct[rank].key;
+            sorted[rank] = rank;
+        }
+        Arrays.sort(sorted, Comparator.<Integer, String>comparing(r -> keys[r])
+                .thenComparingInt(r -> r));
+        rankOfSorted = new int[k];
+        String[] sortedKeys = new String[k];
+        int longest = 0;
+        for (int i = 0; i < k; i++) {
+            rankOfSorted[i] = sorted[i];
+            sortedKeys[i] = keys[sorted[i]];
+            longest = Math.max(longest, sortedKeys[i].length());
+        }
+        maxKeyLength = longest;
+
+        /* Breadth first over runs of sortedKeys sharing a prefix: a node at depth d covers
+         * [start, end), whose keys of length d come first, then one run per next character.
+         * Nodes are numbered in the order they are found, so visiting them in numeric order is
+         * the breadth first order. */
+        StringBuilder labelList = new StringBuilder();
+        IntList starts = new IntList();
+        IntList ends = new IntList();
+        IntList depths = new IntList();
+        IntList children = new IntList();
+        IntList terminals = new IntList();
+        labelList.append('\0');
+        starts.add(0);
+        ends.add(k);
+        depths.add(0);
+        int nodes = 1;
+        for (int v = 0; v < nodes; v++) {
+            int depth = depths.get(v);
+            int end = ends.get(v);
+            children.add(nodes);
+            int i = starts.get(v);
+            while (i < end && sortedKeys[i].length() == depth) {
+                i++;
+            }
+            terminals.add(i);
+            while (i < end) {
+                char c = sortedKeys[i].charAt(depth);
+                int j = i + 1;
+                while (j < end && sortedKeys[j].charAt(depth) == c) {
+                    j++;
+                }
+                labelList.append(c);
+                starts.add(i);
+                ends.add(j);
+                depths.add(depth + 1);
+                nodes++;
+                i = j;
+            }
+        }
+        children.add(nodes);
+
+        labels = labelList.toString().toCharArray();
+        childStart = children.toArray();
+        terminalEnd = terminals.toArray();
+        rangeStart = starts.toArray();
+        rangeEnd = ends.toArray();
+
+        /* Children are numbered after their parents, so walking backwards completes every
+         * child's list before its parent merges them. Most nodes sit on a chain with a single
+         * child and no name of their own, and share that child's list. */
+        int[][] tops = new int[nodes][];
+        for (int v = nodes - 1; v >= 0; v--) {
+            int first = childStart[v];
+            int last = childStart[v + 1];
+            if (terminalEnd[v] == rangeStart[v] && last - first == 1) {
+                tops[v] = tops[first];
+                continue;
+            }
+            IntList candidates = new IntList();
+            for (int i = rangeStart[v]; i < terminalEnd[v]; i++) {
+                candidates.add(rankOfSorted[i]);
+            }
+            for (int child = first; child < last; child++) {
+                for (int rank : tops[child]) {
+                    candidates.add(rank);
+                }
+            }
+            int[] best = candidates.toArray();
+            Arrays.sort(best);
+            tops[v] = best.length > TOP_K ? Arrays.copyOf(best, TOP_K) : best;
+        }
+        topStart = new int[nodes + 1];
+        for (int v = 0; v < nodes; v++) {
+            topStart[v + 1] = topStart[v] + tops[v].length;
+        }
+        top = new int[topStart[nodes]];
+        for (int v = 0; v < nodes; v++) {
+            System.arraycopy(tops[v], 0, top, topStart[v], tops[v].length);
+        }
+    }
+
+    /**
+     * Number of distinct names indexed.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * The best ranked names whose cleaned form starts with the cleaned prefix.
+     *
+     * @param limit Most names to return.
+     * @return Up to limit distinct names, best first; none for a null prefix.
+     */
+    public List<String> complete(String prefix, int limit) {
+        if (prefix == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int v = find(GraphDB.cleanString(prefix));
+        if (v < 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>(Math.min(limit, rangeEnd[v] - rangeStart[v]));
+        if (limit <= TOP_K) {
+            for (int i = topStart[v]; i < topStart[v + 1] && result.size() < limit; i++) {
+                result.add(names[top[i]]);
+            }
+            return result;
+        }
+        int[] ranks = Arrays.copyOfRange(rankOfSorted, rangeStart[v], rangeEnd[v]);
+        Arrays.sort(ranks);
+        for (int i = 0; i < ranks.length && i < limit; i++) {
+            result.add(names[ranks[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * The best names whose cleaned form is within maxDistance edits (insertions, deletions and
+     * substitutions) of the cleaned query, closest first and by rank within a distance.
+     *
+     * @param maxDistance Edits allowed, at most MAX_FUZZY_DISTANCE.
+     * @param limit       Most names to return.
+     * @return Up to limit names; none for a null query.
+     */
+    public List<String> fuzzy(String query, int maxDistance, int limit) {
+        if (maxDistance < 0 || maxDistance > MAX_FUZZY_DISTANCE) {
+            throw new IllegalArgumentException("Edit distance must be in [0, "
+                    + MAX_FUZZY_DISTANCE + "]: " + maxDistance);
+        }
+        if (query == null) {
+            return Collections.emptyList();
+        }
+        String key = GraphDB.cleanString(query);
+        if (limit <= 0 || key.length() > maxKeyLength + maxDistance) {
+            return Collections.emptyList();
+        }
+        int m = key.length();
+        int[][] rows = new int[maxKeyLength + 1][m + 2];
+        for (int j = 0; j <= m; j++) {
+            rows[0][j] = j;
+        }
+        /* Matches as distance * names.length + rank, so sorting orders them as returned. */
+        IntList matches = new IntList();
+        collect(0, 0, key, maxDistance, rows, matches);
+
+        int[] found = matches.toArray();
+        Arrays.sort(found);
+        List<String> result = new ArrayList<String>(Math.min(limit, found.length));
+        for (int i = 0; i < found.length && i < limit; i++) {
+            result.add(names[found[i] % names.length]);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the names below node v, at the given depth, to matches. rows[depth] holds the edit
+     * distances between the prefixes of key and the path to v. Only entries j with
+     * |j - depth| <= maxDistance can be within reach, so only that band is computed; entries
+     * outside it are treated as maxDistance + 1, which can only overestimate, never hide, a
+     * distance beyond maxDistance.
+     */
+    private void collect(int v, int depth, String key, int maxDistance, int[][] rows,
+                         IntList matches) {
+        int m = key.length();
+        int[] row = rows[depth];
+        if (Math.abs(m - depth) <= maxDistance && row[m] <= maxDistance) {
+            for (int i = rangeStart[v]; i < terminalEnd[v]; i++) {
+                matches.add(row[m] * names.length + rankOfSorted[i]);
+            }
+        }
+        int d = depth + 1;
+        int lo = Math.max(1, d - maxDistance);
+        int hi = Math.min(m, d + maxDistance);
+        for (int child = childStart[v]; child < childStart[v + 1]; child++) {
+            char c = labels[child];
+            int[] next = rows[d];
+            next[lo - 1] = lo == 1 ? d : maxDistance + 1;
+            int best = next[lo - 1];
+            for (int j = lo; j <= hi; j++) {
+                int substitute = row[j - 1] + (key.charAt(j - 1) == c ? 0 : 1);
+                next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+                best = Math.min(best, next[j]);
+            }
+            if (hi < m) {
+                next[hi + 1] = maxDistance + 1;
+            }
+            if (best <= maxDistance) {
+                collect(child, d, key, maxDistance, rows, matches);
+            }
+        }
+    }
+
+    /**
+     * The trie node reached by key, or -1 if no cleaned name starts with key.
+     */
+    private int find(String key) {
+        int v = 0;
+        for (int d = 0; d < key.length(); d++) {
+            char c = key.charAt(d);
+            int lo = childStart[v];
+            int hi = childStart[v + 1] - 1;
+            v = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (labels[mid] < c) {
+                    lo = mid + 1;
+                } else if (labels[mid] > c) {
+                    hi = mid - 1;
+                } else {
+                    v = mid;
+                    break;
+                }
+            }
+            if (v < 0) {
+                return -1;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Growable int array for building.
+     */
+    private static final class IntList {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, 2 * size);
+            }
+            items[size++] = item;
+        }
+
+        int get(int i) {
+            return items[i];
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+
+    /**
+     * A distinct name while building: its cleaned form and how many locations carry it.
+     */
+    private static final class Name {
+        private final String name;
+        private final String key;
+        private final int count;
+
+        Name(String name, int count) {
+            this.name = name;
+            this.key = GraphDB.cleanString(name);
+            this.count = count;
+        }
+    }
+}
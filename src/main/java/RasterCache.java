@@ -0,0 +1,212 @@
+import com.google.gson.Gson;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finished /raster responses, keyed by the tiles they were stitched from and the version of the
+ * route drawn over them. Every viewport that resolves to the same tile set produces the same
+ * image, so a repeat is answered from the stored PNG or JSON instead of being stitched,
+ * encoded and Base64-encoded again. The cache is bounded by the bytes it stores and evicts the
+ * least recently used responses first. Whenever a route is replaced the server drops the
+ * rasters drawn with it; route versions are never reused, so a response rendered with an older
+ * route cannot be served even when it is stored after that.
+ */
+public class RasterCache {
+
+    /**
+     * Route version of a raster with no route drawn on it, which any route change leaves valid.
+     */
+    public static final long NO_ROUTE = -1;
+
+    /**
+     * Identifies a raster: the names of its tiles in row-major order, and the version of the
+     * route drawn on it, or NO_ROUTE.
+     */
+    public static final class Key {
+        private final int[] tiles;
+        private final long routeVersion;
+        private final int hash;
+
+        public Key(List<QuadNode> tiles, long routeVersion) {
+            this.tiles = new int[tiles.size()];
+            for (int i = 0; i < this.tiles.length; i++) {
+                this.tiles[i] = tiles.get(i).getName();
+            }
+            this.routeVersion = routeVersion;
+            this.hash = 31 * Arrays.hashCode(this.tiles) + Long.hashCode(routeVersion);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return routeVersion == other.routeVersion && Arrays.equals(tiles, other.tiles);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A finished raster: the parameters of the JSON response and the PNG image. The JSON
+     * response with the image Base64-encoded into it is built on first use only, since binary
+     * clients never ask for it.
+     */
+    public static final class Entry {
+        private final Map<String, Object> params;
+        private final byte[] png;
+        private volatile String json;
+
+        /**
+         * @param png The encoded image, or null if no image could be rastered.
+         */
+        public Entry(Map<String, Object> params, byte[] png) {
+            this.params = params;
+            this.png = png;
+        }
+
+        /**
+         * The response parameters without the image data; callers must not modify the map.
+         */
+        public Map<String, Object> params() {
+            return params;
+        }
+
+        /**
+         * The encoded PNG; callers must not modify the array.
+         */
+        public byte[] png() {
+            return png;
+        }
+
+        /**
+         * The /raster JSON response: the parameters, plus the image as b64_encoded_image_data.
+         */
+        public String json() {
+            String result = json;
+            if (result == null) {
+                Map<String, Object> response = new HashMap<String, Object>(params);
+                if (png != null) {
+                    response.put("b64_encoded_image_data",
+                            Base64.getEncoder().encodeToString(png));
+                }
+                result = new Gson().toJson(response);
+                json = result;
+            }
+            return result;
+        }
+
+        /**
+         * Approximate heap footprint once the JSON has been built: the PNG plus two bytes per
+         * character of its Base64 encoding.
+         */
+        long bytes() {
+            return png.length + 2L * 4 * ((png.length + 2) / 3);
+        }
+    }
+
+    private final long capacityBytes;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public RasterCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        this.entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached raster for key, or null if there is none.
+     */
+    public synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    public synchronized void put(Key key, Entry entry) {
+        long size = entry.bytes();
+        if (size > capacityBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes();
+        }
+        bytes += size;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > capacityBytes) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.bytes();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops every cached raster drawn with the given version of a route.
+     */
+    public synchronized void removeRoute(long routeVersion) {
+        if (routeVersion == NO_ROUTE) {
+            return;
+        }
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (e.getKey().routeVersion == routeVersion) {
+                bytes -= e.getValue().bytes();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every cached raster.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+}
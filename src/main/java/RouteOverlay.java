@@ -0,0 +1,152 @@
+import java.util.List;
+
+/**
+ * A route projected into map pixel coordinates and simplified for every tile depth, computed
+ * once when the route is set. Rasters and the client-side route layer then draw a polyline
+ * that is ready for their zoom level, instead of looking up and projecting every node of the
+ * route on every pan.
+ * <p>
+ * Simplification is Douglas-Peucker with a tolerance of ROUTE_TOLERANCE_PX pixels at each
+ * depth, so zoomed-out views keep only the handful of points that are visible at that scale.
+ * Pixel coordinates are relative to the upper left corner of the whole map at that depth.
+ * </p>
+ */
+public class RouteOverlay {
+
+    /**
+     * Maximum distance, in pixels, a dropped point may lie from the simplified line.
+     */
+    private static final double ROUTE_TOLERANCE_PX = 0.5;
+
+    private static final double[] NO_POINTS = new double[0];
+
+    /**
+     * An overlay for the empty route.
+     */
+    public static final RouteOverlay EMPTY = new RouteOverlay(new double[0][]);
+
+    /* points[depth] = {x0, y0, x1, y1, ...} */
+    private final double[][] points;
+
+    private RouteOverlay(double[][] points) {
+        this.points = points;
+    }
+
+    /**
+     * Projects and simplifies a route for every depth of the tile tree.
+     *
+     * @param route OSM ids of the nodes on the route, in order.
+     */
+    public static RouteOverlay build(CompactGraph graph, List<Long> route,
+                                     ImplicitQuadTree tiles) {
+        if (route.isEmpty()) {
+            return EMPTY;
+        }
+        int n = route.size();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        int i = 0;
+        for (long id : route) {
+            int v = graph.indexOf(id);
+            lons[i] = graph.lon(v);
+            lats[i] = graph.lat(v);
+            i++;
+        }
+
+        double[][] points = new double[tiles.maxDepth() + 1][];
+        double[] projected = new double[2 * n];
+        for (int depth = 0; depth <= tiles.maxDepth(); depth++) {
+            for (int j = 0; j < n; j++) {
+                projected[2 * j] = tiles.pixelX(depth, lons[j]);
+                projected[2 * j + 1] = tiles.pixelY(depth, lats[j]);
+            }
+            points[depth] = simplify(projected, n, ROUTE_TOLERANCE_PX);
+        }
+        return new RouteOverlay(points);
+    }
+
+    /**
+     * Douglas-Peucker over the first n points of xy, iterative with an explicit stack.
+     *
+     * @return The kept points, in order, as {x0, y0, x1, y1, ...}.
+     */
+    private static double[] simplify(double[] xy, int n, double tolerance) {
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = n == 1 ? 1 : 2;
+
+        int[] stack = new int[2 * n];
+        int top = 0;
+        if (n > 2) {
+            stack[top++] = 0;
+            stack[top++] = n - 1;
+        }
+        double toleranceSquared = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double farthestDist = toleranceSquared;
+            for (int i = first + 1; i < last; i++) {
+                double d = segmentDistanceSquared(xy, i, first, last);
+                if (d > farthestDist) {
+                    farthest = i;
+                    farthestDist = d;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            keep[farthest] = true;
+            kept++;
+            if (farthest - first > 1) {
+                stack[top++] = first;
+                stack[top++] = farthest;
+            }
+            if (last - farthest > 1) {
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+
+        double[] result = new double[2 * kept];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (keep[i]) {
+                result[j++] = xy[2 * i];
+                result[j++] = xy[2 * i + 1];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Squared distance from point p to the segment from point a to point b.
+     */
+    private static double segmentDistanceSquared(double[] xy, int p, int a, int b) {
+        double px = xy[2 * p];
+        double py = xy[2 * p + 1];
+        double ax = xy[2 * a];
+        double ay = xy[2 * a + 1];
+        double dx = xy[2 * b] - ax;
+        double dy = xy[2 * b + 1] - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0
+                : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return ex * ex + ey * ey;
+    }
+
+    public boolean isEmpty() {
+        return points.length == 0;
+    }
+
+    /**
+     * The simplified route at the given depth as {x0, y0, x1, y1, ...} in map pixels; empty
+     * if there is no route. Callers must not modify the array.
+     */
+    public double[] points(int depth) {
+        return isEmpty() ? NO_POINTS : points[depth];
+    }
+}
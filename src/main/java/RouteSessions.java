@@ -0,0 +1,210 @@
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * The current route of every client, keyed by an opaque session token, so concurrent users of
+ * one server each see only their own route. The map holds at most a fixed number of sessions
+ * and forgets a session once it has gone unused for the idle timeout, or when room is needed
+ * for a newer one, least recently used first. Expiry is checked on access, so there is no
+ * background thread.
+ * <p>
+ * Every route set gets a version unique across all sessions, which rasters drawn with it are
+ * cached under. When a route is replaced, cleared or expires, its version is handed to the
+ * retired callback so those rasters can be dropped.
+ * </p>
+ */
+public class RouteSessions {
+
+    /**
+     * A route and its version, as seen by one session.
+     */
+    public static final class Route {
+        private final RouteOverlay overlay;
+        private final long version;
+
+        Route(RouteOverlay overlay, long version) {
+            this.overlay = overlay;
+            this.version = version;
+        }
+
+        public RouteOverlay overlay() {
+            return overlay;
+        }
+
+        /**
+         * The version rasters drawn with this route are cached under, or RasterCache.NO_ROUTE
+         * if there is no route.
+         */
+        public long version() {
+            return version;
+        }
+    }
+
+    /**
+     * The route of a session that has none.
+     */
+    public static final Route NO_ROUTE = new Route(RouteOverlay.EMPTY, RasterCache.NO_ROUTE);
+
+    private static final int TOKEN_BYTES = 16;
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private final int capacity;
+    private final long idleNanos;
+    private final LongConsumer retired;
+    private final LinkedHashMap<String, Session> sessions;
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param capacity    Most sessions kept at once.
+     * @param idleTimeout How long, in idleUnit, a session may go unused before it is forgotten.
+     * @param retired     Called with the version of each route that is replaced, cleared or
+     *                    forgotten, outside any lock of this map.
+     */
+    public RouteSessions(int capacity, long idleTimeout, TimeUnit idleUnit,
+                         LongConsumer retired) {
+        this.capacity = capacity;
+        this.idleNanos = idleUnit.toNanos(idleTimeout);
+        this.retired = retired;
+        this.sessions = new LinkedHashMap<String, Session>(256, 0.75f, true);
+    }
+
+    /**
+     * A new random session token, safe to use in URLs and cookies.
+     */
+    public String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Whether token is acceptable as a session token: 1 to 64 URL-safe Base64 characters.
+     */
+    public static boolean isValidToken(String token) {
+        if (token == null || token.isEmpty() || token.length() > MAX_TOKEN_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                    || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The current route of the session, or NO_ROUTE if it has none or has expired.
+     */
+    public Route get(String token) {
+        List<Long> expired = new ArrayList<Long>();
+        Route route = NO_ROUTE;
+        synchronized (this) {
+            long now = System.nanoTime();
+            expire(now, expired);
+            Session session = sessions.get(token);
+            if (session != null) {
+                session.lastUsed = now;
+                route = session.route;
+            }
+        }
+        retire(expired);
+        return route;
+    }
+
+    /**
+     * Makes overlay the session's route, under a fresh version.
+     *
+     * @return The new route.
+     */
+    public Route set(String token, RouteOverlay overlay) {
+        if (overlay.isEmpty()) {
+            remove(token);
+            return NO_ROUTE;
+        }
+        Route route = new Route(overlay, versions.incrementAndGet());
+        List<Long> expired = new ArrayList<Long>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            expire(now, expired);
+            Session previous = sessions.put(token, new Session(route, now));
+            if (previous != null) {
+                expired.add(previous.route.version);
+            }
+            Iterator<Session> eldest = sessions.values().iterator();
+            while (sessions.size() > capacity) {
+                expired.add(eldest.next().route.version);
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        retire(expired);
+        return route;
+    }
+
+    /**
+     * Forgets the session's route, if it has one.
+     */
+    public void remove(String token) {
+        Session removed;
+        synchronized (this) {
+            removed = sessions.remove(token);
+        }
+        if (removed != null) {
+            retired.accept(removed.route.version);
+        }
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Number of sessions forgotten for being idle or for lack of room.
+     */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Drops idle sessions from the least recently used end, collecting their route versions.
+     */
+    private void expire(long now, List<Long> expired) {
+        Iterator<Session> eldest = sessions.values().iterator();
+        while (eldest.hasNext()) {
+            Session session = eldest.next();
+            if (now - session.lastUsed < idleNanos) {
+                break;
+            }
+            expired.add(session.route.version);
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void retire(List<Long> versions) {
+        for (long version : versions) {
+            retired.accept(version);
+        }
+    }
+
+    private static final class Session {
+        private final Route route;
+        private long lastUsed;
+
+        Session(Route route, long lastUsed) {
+            this.route = route;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.stream.IntStream;
+
+/**
+ * Answers shortest-route queries over a CompactGraph. Queries run A* with the straight-line
+ * distance to the end node as the heuristic, A* with the ALT heuristic when Landmarks have
+ * been computed, bidirectional A* from both ends at once, or go through a
+ * ContractionHierarchy when one has been built for the graph. Distances from one node to many
+ * come from a single Dijkstra search, and distance matrices from one such search per source.
+ * The engine itself is immutable; all per-query state lives in a SearchContext that each
+ * thread reuses across queries, so any number of threads can route at the same time.
+ * A search allocates nothing: distances and predecessors are primitive arrays indexed by node,
+ * the fringe is an IndexedMinHeap with decrease-key, and both are reset between queries by
+ * bumping a generation counter rather than clearing them.
+ */
+public class RoutingEngine {
+
+    /**
+     * Search algorithms a route query can run with.
+     */
+    public enum Algorithm {
+        ASTAR, ALT, BIDIRECTIONAL_ASTAR, CONTRACTION_HIERARCHY;
+
+        /**
+         * Looks an algorithm up by name, ignoring case.
+         *
+         * @throws IllegalArgumentException If there is no algorithm with that name.
+         */
+        public static Algorithm parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private final CompactGraph graph;
+    private final KdTree index;
+    private final ContractionHierarchy hierarchy;
+    private final Landmarks landmarks;
+    private final ThreadLocal<SearchContext> contexts;
+    /* Backward search state; only allocated on threads that run bidirectional queries. */
+    private final ThreadLocal<SearchContext> reverseContexts;
+
+    public RoutingEngine(CompactGraph graph, KdTree index) {
+        this(graph, index, null, null);
+    }
+
+    /**
+     * @param hierarchy Hierarchy built for graph, or null if there is none.
+     * @param landmarks Landmarks computed for graph, or null if there are none.
+     */
+    public RoutingEngine(CompactGraph graph, KdTree index, ContractionHierarchy hierarchy,
+                         Landmarks landmarks) {
+        this.graph = graph;
+        this.index = index;
+        this.hierarchy = hierarchy;
+        this.landmarks = landmarks;
+        this.contexts = ThreadLocal.withInitial(() -> new SearchContext(graph.size()));
+        this.reverseContexts = ThreadLocal.withInitial(() -> new SearchContext(graph.size()));
+    }
+
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * The algorithm used when a query does not ask for one: the hierarchy if there is one,
+     * otherwise ALT if there are landmarks, otherwise plain A*.
+     */
+    public Algorithm defaultAlgorithm() {
+        if (hierarchy != null) {
+            return Algorithm.CONTRACTION_HIERARCHY;
+        }
+        return landmarks != null ? Algorithm.ALT : Algorithm.ASTAR;
+    }
+
+    /**
+     * Whether queries can run with the given algorithm.
+     */
+    public boolean supports(Algorithm algorithm) {
+        switch (algorithm) {
+            case CONTRACTION_HIERARCHY:
+                return hierarchy != null;
+            case ALT:
+                return landmarks != null;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Finds the shortest route between the nodes closest to the two given points.
+     *
+     * @return The OSM ids of the nodes on the route, from start to end, or an empty list if
+     * the end cannot be reached.
+     */
+    public LinkedList<Long> route(double startLat, double startLon, double endLat, double endLon) {
+        return route(index.nearest(startLat, startLon), index.nearest(endLat, endLon));
+    }
+
+    /**
+     * Finds the shortest route between two nodes.
+     *
+     * @param start CompactGraph index of the start node.
+     * @param end   CompactGraph index of the end node.
+     * @return The OSM ids of the nodes on the route, from start to end, or an empty list if
+     * the end cannot be reached.
+     */
+    public LinkedList<Long> route(int start, int end) {
+        return route(start, end, defaultAlgorithm());
+    }
+
+    /**
+     * Finds the shortest route between two nodes with the given algorithm.
+     *
+     * @throws IllegalArgumentException If the engine does not support the algorithm.
+     */
+    public LinkedList<Long> route(int start, int end, Algorithm algorithm) {
+        checkSupported(algorithm);
+        SearchContext ctx = contexts.get();
+        ctx.last = algorithm;
+        if (algorithm == Algorithm.CONTRACTION_HIERARCHY) {
+            return hierarchy.route(start, end);
+        }
+        LinkedList<Long> path = new LinkedList<Long>();
+        if (algorithm == Algorithm.BIDIRECTIONAL_ASTAR) {
+            SearchContext reverse = reverseContexts.get();
+            int meet = bidirectionalSearch(ctx, reverse, start, end);
+            if (meet < 0) {
+                return path;
+            }
+            for (int v = meet; v != -1; v = ctx.prev[v]) {
+                path.addFirst(graph.id(v));
+            }
+            for (int v = reverse.prev[meet]; v != -1; v = reverse.prev[v]) {
+                path.addLast(graph.id(v));
+            }
+            return path;
+        }
+        if (!search(ctx, start, end, algorithm == Algorithm.ALT)) {
+            return path;
+        }
+        for (int v = end; v != -1; v = ctx.prev[v]) {
+            path.addFirst(graph.id(v));
+        }
+        return path;
+    }
+
+    /**
+     * Length of the shortest route between two nodes, without materializing the route.
+     *
+     * @return The route length, or Double.POSITIVE_INFINITY if the end cannot be reached.
+     */
+    public double distance(int start, int end) {
+        return distance(start, end, defaultAlgorithm());
+    }
+
+    /**
+     * Length of the shortest route between two nodes, computed with the given algorithm.
+     *
+     * @throws IllegalArgumentException If the engine does not support the algorithm.
+     */
+    public double distance(int start, int end, Algorithm algorithm) {
+        checkSupported(algorithm);
+        SearchContext ctx = contexts.get();
+        ctx.last = algorithm;
+        if (algorithm == Algorithm.CONTRACTION_HIERARCHY) {
+            return hierarchy.distance(start, end);
+        }
+        if (algorithm == Algorithm.BIDIRECTIONAL_ASTAR) {
+            SearchContext reverse = reverseContexts.get();
+            int meet = bidirectionalSearch(ctx, reverse, start, end);
+            return meet < 0 ? Double.POSITIVE_INFINITY : ctx.dist[meet] + reverse.dist[meet];
+        }
+        return search(ctx, start, end, algorithm == Algorithm.ALT) ? ctx.dist[end]
+                : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Lengths of the shortest routes from start to each of the targets, found with one
+     * Dijkstra search that stops once every target is settled.
+     *
+     * @return distances[i], the route length to targets[i], or Double.POSITIVE_INFINITY if it
+     * cannot be reached.
+     */
+    public double[] distances(int start, int[] targets) {
+        return oneToMany(contexts.get(), start, targets);
+    }
+
+    /**
+     * Lengths of the shortest routes from every source to every target: one one-to-many search
+     * per source, run in parallel on all cores.
+     *
+     * @return matrix[i][j], the route length from sources[i] to targets[j], or
+     * Double.POSITIVE_INFINITY if it cannot be reached.
+     */
+    public double[][] distanceMatrix(int[] sources, int[] targets) {
+        double[][] matrix = new double[sources.length][];
+        IntStream.range(0, sources.length).parallel().forEach(i -> matrix[i] =
+                oneToMany(contexts.get(), sources[i], targets));
+        return matrix;
+    }
+
+    /**
+     * Runs Dijkstra from start until every target is settled, or everything reachable is.
+     */
+    private double[] oneToMany(SearchContext ctx, int start, int[] targets) {
+        ctx.last = null;
+        ctx.reset();
+        double[] dist = ctx.dist;
+        IndexedMinHeap fringe = ctx.fringe;
+
+        int remaining = ctx.markTargets(targets);
+        ctx.reach(start, 0.0, -1);
+        fringe.add(start, 0.0);
+        while (!fringe.isEmpty() && remaining > 0) {
+            int v = fringe.poll();
+            if (ctx.isTarget(v)) {
+                remaining--;
+            }
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                int w = graph.target(e);
+                double distance = dist[v] + graph.distance(v, w);
+                if (!ctx.reached(w)) {
+                    ctx.reach(w, distance, v);
+                    fringe.add(w, distance);
+                } else if (distance < dist[w]) {
+                    dist[w] = distance;
+                    ctx.prev[w] = v;
+                    fringe.decreaseKey(w, distance);
+                }
+            }
+        }
+
+        double[] distances = new double[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            distances[i] = ctx.reached(targets[i]) ? dist[targets[i]] : Double.POSITIVE_INFINITY;
+        }
+        return distances;
+    }
+
+    /**
+     * Nodes settled by the last route or distance query this thread ran on this engine, in
+     * both directions for bidirectional searches; 0 before the first.
+     */
+    public int lastSettled() {
+        SearchContext ctx = contexts.get();
+        if (ctx.last == Algorithm.CONTRACTION_HIERARCHY) {
+            return hierarchy.lastSettled();
+        }
+        int settled = ctx.fringe.polls();
+        if (ctx.last == Algorithm.BIDIRECTIONAL_ASTAR) {
+            settled += reverseContexts.get().fringe.polls();
+        }
+        return settled;
+    }
+
+    /**
+     * The most nodes waiting in the fringe during the last route or distance query this thread
+     * ran on this engine, the peaks of the two directions added for bidirectional searches.
+     */
+    public int lastPeakFringe() {
+        SearchContext ctx = contexts.get();
+        if (ctx.last == Algorithm.CONTRACTION_HIERARCHY) {
+            return hierarchy.lastPeakFringe();
+        }
+        int peak = ctx.fringe.peakSize();
+        if (ctx.last == Algorithm.BIDIRECTIONAL_ASTAR) {
+            peak += reverseContexts.get().fringe.peakSize();
+        }
+        return peak;
+    }
+
+    private void checkSupported(Algorithm algorithm) {
+        if (!supports(algorithm)) {
+            throw new IllegalArgumentException(algorithm + " is not available for this graph");
+        }
+    }
+
+    /**
+     * Runs A* from start until end is settled. The straight-line heuristic is consistent, so
+     * a node's distance is normally final once it leaves the heap. The landmark bound gives up
+     * a little consistency to float rounding, so a settled node whose distance still improves
+     * is reopened rather than left with a slightly long route.
+     *
+     * @param alt Whether to tighten the straight-line heuristic with the landmark bound.
+     * @return Whether end was reached; if so ctx.dist and ctx.prev describe the route.
+     */
+    private boolean search(SearchContext ctx, int start, int end, boolean alt) {
+        ctx.reset();
+        double[] dist = ctx.dist;
+        int[] prev = ctx.prev;
+        IndexedMinHeap fringe = ctx.fringe;
+
+        ctx.reach(start, 0.0, -1);
+        fringe.add(start, heuristic(start, end, alt));
+
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            if (v == end) {
+                return true;
+            }
+
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                int w = graph.target(e);
+                double distance = dist[v] + graph.distance(v, w);
+                if (!ctx.reached(w)) {
+                    ctx.reach(w, distance, v);
+                    fringe.add(w, distance + heuristic(w, end, alt));
+                } else if (distance < dist[w]) {
+                    dist[w] = distance;
+                    prev[w] = v;
+                    if (fringe.contains(w)) {
+                        fringe.decreaseKey(w, distance + heuristic(w, end, alt));
+                    } else {
+                        fringe.add(w, distance + heuristic(w, end, alt));
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bidirectional A* with average potentials. The forward search from start is keyed by
+     * dist + p(v) and the backward search from end by dist - p(v), where
+     * p(v) = (|v - end| - |v - start|) / 2, so both see the same consistent reduced edge costs
+     * and the best route found so far is optimal once the two smallest keys add up to at least
+     * its length. Each step expands whichever side has the smaller fringe.
+     *
+     * @return The node where the searches meet on the shortest route, or -1 if end cannot be
+     * reached. The route follows forward.prev from the meeting node back to start and
+     * backward.prev from it on to end.
+     */
+    private int bidirectionalSearch(SearchContext forward, SearchContext backward, int start,
+                                    int end) {
+        forward.reset();
+        backward.reset();
+        forward.reach(start, 0.0, -1);
+        forward.fringe.add(start, potential(start, start, end));
+        backward.reach(end, 0.0, -1);
+        backward.fringe.add(end, -potential(end, start, end));
+        if (start == end) {
+            return start;
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (!forward.fringe.isEmpty() && !backward.fringe.isEmpty()
+                && forward.fringe.peekKey() + backward.fringe.peekKey() < best) {
+            boolean isForward = forward.fringe.size() <= backward.fringe.size();
+            SearchContext side = isForward ? forward : backward;
+            SearchContext other = isForward ? backward : forward;
+            double sign = isForward ? 1.0 : -1.0;
+
+            int v = side.fringe.poll();
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                int w = graph.target(e);
+                double distance = side.dist[v] + graph.distance(v, w);
+                double key = distance + sign * potential(w, start, end);
+                if (!side.reached(w)) {
+                    side.reach(w, distance, v);
+                    side.fringe.add(w, key);
+                } else if (distance < side.dist[w]) {
+                    side.dist[w] = distance;
+                    side.prev[w] = v;
+                    if (side.fringe.contains(w)) {
+                        side.fringe.decreaseKey(w, key);
+                    } else {
+                        side.fringe.add(w, key);
+                    }
+                } else {
+                    continue;
+                }
+                if (other.reached(w) && distance + other.dist[w] < best) {
+                    best = distance + other.dist[w];
+                    meet = w;
+                }
+            }
+        }
+        return meet;
+    }
+
+    private double potential(int v, int start, int end) {
+        return (graph.distance(v, end) - graph.distance(v, start)) / 2;
+    }
+
+    private double heuristic(int v, int end, boolean alt) {
+        double straight = graph.distance(v, end);
+        return alt ? Math.max(straight, landmarks.lowerBound(v, end)) : straight;
+    }
+
+    /**
+     * Per-thread scratch space for one search at a time, sized to the graph once.
+     * dist[v] and prev[v] are only meaningful when stamp[v] equals the current generation, and
+     * v is a target of the current one-to-many search when targetStamp[v] does.
+     */
+    private static class SearchContext {
+        private final double[] dist;
+        private final int[] prev;
+        private final int[] stamp;
+        private final IndexedMinHeap fringe;
+        private final int[] targetStamp;
+        private int generation;
+        /* The algorithm of the last query run with this context as its forward side. */
+        private Algorithm last;
+
+        SearchContext(int n) {
+            dist = new double[n];
+            prev = new int[n];
+            stamp = new int[n];
+            fringe = new IndexedMinHeap(n);
+            targetStamp = new int[n];
+        }
+
+        void reset() {
+            generation++;
+            if (generation == 0) {
+                Arrays.fill(stamp, 0);
+                Arrays.fill(targetStamp, 0);
+                generation = 1;
+            }
+            fringe.clear();
+        }
+
+        /**
+         * Marks the targets of the search since the last reset().
+         *
+         * @return How many distinct targets there are.
+         */
+        int markTargets(int[] targets) {
+            int distinct = 0;
+            for (int v : targets) {
+                if (targetStamp[v] != generation) {
+                    targetStamp[v] = generation;
+                    distinct++;
+                }
+            }
+            return distinct;
+        }
+
+        boolean isTarget(int v) {
+            return targetStamp[v] == generation;
+        }
+
+        boolean reached(int v) {
+            return stamp[v] == generation;
+        }
+
+        void reach(int v, double d, int p) {
+            stamp[v] = generation;
+            dist[v] = d;
+            prev[v] = p;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded map tiles kept in memory, keyed by QuadNode name, so rastering a region that was
+ * rastered recently reads neither the disk nor the PNG decoder. The cache holds at most a fixed
+ * number of bytes of pixel data and evicts the least recently used tiles to stay under it.
+ * Tiles are stored as TYPE_INT_RGB images, whatever their PNG encoding, so rastering can copy
+ * their pixel arrays directly. Cached images are shared between requests and must only be
+ * read, never drawn on.
+ * <p>
+ * A miss decodes the tile outside the lock, so two threads missing on the same tile at once
+ * may both decode it; the second insert simply replaces the first.
+ * </p>
+ */
+public class TileCache {
+
+    private final String directory;
+    private final long capacityBytes;
+    private final LinkedHashMap<Integer, BufferedImage> tiles;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param directory     Directory holding the tile images, ending in a separator.
+     * @param capacityBytes Upper bound on the decoded pixel data kept in memory.
+     */
+    public TileCache(String directory, long capacityBytes) {
+        this.directory = directory;
+        this.capacityBytes = capacityBytes;
+        this.tiles = new LinkedHashMap<Integer, BufferedImage>(256, 0.75f, true);
+    }
+
+    /**
+     * Returns the decoded image of the named tile, reading it from disk if it is not cached.
+     */
+    public BufferedImage get(int name) throws IOException {
+        synchronized (this) {
+            BufferedImage cached = tiles.get(name);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        BufferedImage decoded = ImageIO.read(new File(directory + name + ".png"));
+        if (decoded == null) {
+            throw new IOException("No decodable image for tile " + name);
+        }
+        BufferedImage image = decoded;
+        if (decoded.getType() != BufferedImage.TYPE_INT_RGB) {
+            image = new BufferedImage(decoded.getWidth(), decoded.getHeight(),
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.drawImage(decoded, 0, 0, null);
+            g.dispose();
+        }
+        put(name, image);
+        return image;
+    }
+
+    private synchronized void put(int name, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > capacityBytes) {
+            return;
+        }
+        BufferedImage previous = tiles.put(name, image);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Integer, BufferedImage>> eldest = tiles.entrySet().iterator();
+        while (bytes > capacityBytes) {
+            BufferedImage evicted = eldest.next().getValue();
+            eldest.remove();
+            bytes -= sizeOf(evicted);
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Bytes of pixel data a TYPE_INT_RGB image holds.
+     */
+    private static long sizeOf(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Empties the cache. The hit, miss and eviction counters are kept.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * The map tile PNGs under the image directory, served as they are so browsers and caches in
+ * between can keep them. A tile is addressed by its depth and QuadNode name; the name has one
+ * digit from 1 to 4 per level below the root (top left, top right, bottom left, bottom right),
+ * and the root itself is named 0.
+ * <p>
+ * Each tile gets a strong ETag derived from its contents. Tags are computed once per file and
+ * recomputed only when the file's size or modification time changes.
+ * </p>
+ */
+public class TileFiles {
+
+    private final Path directory;
+    private final int maxDepth;
+    private final ConcurrentHashMap<Integer, Tag> tags = new ConcurrentHashMap<Integer, Tag>();
+
+    /**
+     * @param directory Directory holding the tile images.
+     * @param maxDepth  Depth of the deepest tiles.
+     */
+    public TileFiles(String directory, int maxDepth) {
+        this.directory = Paths.get(directory);
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Parses the name of a tile at the given depth.
+     *
+     * @return The QuadNode name, or -1 if name is not a well-formed tile name for that depth.
+     */
+    public int parseName(int depth, String name) {
+        if (depth < 0 || depth > maxDepth) {
+            return -1;
+        }
+        if (depth == 0) {
+            return "0".equals(name) ? 0 : -1;
+        }
+        if (name.length() != depth) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '1' || c > '4') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * The image file of the named tile, or null if there is none.
+     */
+    public Path file(int name) {
+        Path file = directory.resolve(name + ".png");
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    /**
+     * The strong ETag of the named tile's current contents, quotes included.
+     */
+    public String etag(int name, Path file) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        Tag tag = tags.get(name);
+        if (tag == null || tag.size != size || tag.modified != modified) {
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(file));
+            tag = new Tag(size, modified,
+                    "\"" + Long.toHexString(size) + "-" + Long.toHexString(crc.getValue()) + "\"");
+            tags.put(name, tag);
+        }
+        return tag.etag;
+    }
+
+    /**
+     * Whether an If-None-Match header value matches etag, so the client's copy is current.
+     * If-None-Match compares weakly, so a W/ prefix on a candidate is ignored.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String c = candidate.trim();
+            if (c.startsWith("W/")) {
+                c = c.substring(2);
+            }
+            if (c.equals("*") || c.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies file to out with FileChannel.transferTo, which lets the operating system move
+     * the bytes without copying them through the heap when out permits it.
+     *
+     * @return The number of bytes written.
+     */
+    public static long transfer(Path file, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return size;
+        }
+    }
+
+    private static final class Tag {
+        private final long size;
+        private final long modified;
+        private final String etag;
+
+        Tag(long size, long modified, String etag) {
+            this.size = size;
+            this.modified = modified;
+            this.etag = etag;
+        }
+    }
+}
@@ -23,6 +23,20 @@ var img_w, img_h;
 var wdpp = 0.00004291534423828125; // Starting wdpp for level 3
 var hdpp = 0.00003388335630702399; // Starting hdpp for level 3
 var max_level = 7; var min_level = 2; // Level limits based on pulled data
+// Tile mode (open map.html?mode=tiles) fetches the tiles from /tiles and lays them out here
+// instead of asking /raster for one stitched image, so the browser can cache every tile.
+var tile_mode = /[?&]mode=tiles(&|$)/.test(window.location.search);
+var tile_layer;
+// The route is drawn here from /route_overlay rather than into the raster, so panning never
+// re-renders it. Overlays are fetched once per depth and kept until the route changes.
+var route_layer;
+var route_overlays = {};
+// Routes belong to a session on the server; /route starts one and returns its token, which is
+// sent along with every later route request.
+var route_session = null;
+var ROOT_ULLAT = 37.892195547244356, ROOT_ULLON = -122.2998046875,
+    ROOT_LRLAT = 37.82280243352756, ROOT_LRLON = -122.2119140625;
+var TILE_SIZE = 256;
 
 // Compute lat and lon by window size
 function real_lrlat() { return params["ullat"] - hdpp * params["h"]; }
@@ -39,7 +53,11 @@ $( document ).ready(function() {
     var route_server = host + "/route"
     var clear_route = host + "/clear_route"
     var search = host + "/search"
+    var tile_server = host + "/tiles"
+    var route_overlay_server = host + "/route_overlay"
     map = document.getElementById("map");
+    tile_layer = document.getElementById("tiles");
+    route_layer = document.getElementById("route");
     dest = document.getElementById("dest");
     dest.style.visibility = 'hidden';
     params["lrlon"] = real_lrlon();
@@ -49,8 +67,31 @@ $( document ).ready(function() {
     $('body').css("overflow", "hidden"); // hide scroll bar
 
     // Search bar
+    // Falls back to names within two typos of the term when no name starts with it.
     $( "#tags" ).autocomplete({
-          source: search,
+          source: function(request, response) {
+              $.get({
+                  async: true,
+                  url: search,
+                  data: { term: request.term },
+                  success: function(data) {
+                      if (data.length > 0 || request.term.length < 4) {
+                          response(data);
+                          return;
+                      }
+                      $.get({
+                          async: true,
+                          url: search,
+                          data: { term: request.term, fuzzy: 2 },
+                          success: response,
+                          error: function() { response([]); },
+                          dataType: "json"
+                      });
+                  },
+                  error: function() { response([]); },
+                  dataType: "json"
+              });
+          },
           minLength: 2,
           select: function (event, ui) {
               $.get({
@@ -115,8 +156,10 @@ $( document ).ready(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: withSession({}),
             success: function(data) {
                 dest.style.visibility = 'hidden';
+                route_overlays = {};
                 update();
             },
         });
@@ -269,39 +312,147 @@ $( document ).ready(function() {
     }
 
     function updateImg() {
+        if (tile_mode) {
+            updateTiles();
+            return;
+        }
         // Synchronous ajax call for image update. Could be async for better experience
         // but then user spam locks up the server.
         $.get({
             async: false,
             url: raster_server,
-            data: params,
+            data: $.extend({overlay: false}, params),
             success: function(data) {
                 if (data.query_success) {
                     console.log("Updating map");
                     map.src = "data:image/png;base64," + data.b64_encoded_image_data;
-                    ullon_bound = data.raster_ul_lon;
-                    ullat_bound = data.raster_ul_lat;
-                    lrlon_bound = data.raster_lr_lon;
-                    lrlat_bound = data.raster_lr_lat;
-                    current_level = data.depth;
-                    img_w = data.raster_width;
-                    img_h = data.raster_height;
-                    wdpp = (lrlon_bound - ullon_bound) / img_w;
-                    hdpp = (ullat_bound - lrlat_bound) / img_h;
-                    // Compute initial transform
-                    tx = - (params["ullon"] - ullon_bound) * (1 / wdpp);
-                    ty = (params["ullat"] - ullat_bound) * (1 / hdpp);
-                    rtx = (route_params["end_lon"] - params["ullon"]) * (1 / wdpp) - dest.width / 2 - tx;
-                    rty = - (route_params["end_lat"] - params["ullat"]) * (1 / hdpp) - dest.height - ty;
-                    updateMarkers();
+                    map.style.visibility = 'visible';
+                    tile_layer.style.visibility = 'hidden';
+                    setRaster(data.raster_ul_lon, data.raster_ul_lat, data.raster_lr_lon,
+                              data.raster_lr_lat, data.depth, data.raster_width,
+                              data.raster_height);
                 }
             },
             dataType: "json"
         });
     }
 
+    // Lays out the tiles /raster would have stitched for the current params, picking the
+    // depth and tiles with the same rules as the server.
+    function updateTiles() {
+        var query_dpp = (params["lrlon"] - params["ullon"]) / params["w"];
+        var depth = 0;
+        while (depth < max_level &&
+               (ROOT_LRLON - ROOT_ULLON) / Math.pow(2, depth) / TILE_SIZE > query_dpp) {
+            depth++;
+        }
+        var n = Math.pow(2, depth);
+        var tile_lon = (ROOT_LRLON - ROOT_ULLON) / n;
+        var tile_lat = (ROOT_ULLAT - ROOT_LRLAT) / n;
+        var clamp = function(v) { return Math.max(0, Math.min(n - 1, v)); };
+        var c0 = clamp(Math.floor((params["ullon"] - ROOT_ULLON) / tile_lon));
+        var c1 = clamp(Math.floor((params["lrlon"] - ROOT_ULLON) / tile_lon));
+        var r0 = clamp(Math.floor((ROOT_ULLAT - params["ullat"]) / tile_lat));
+        var r1 = clamp(Math.floor((ROOT_ULLAT - params["lrlat"]) / tile_lat));
+
+        console.log("Updating tiles");
+        $(tile_layer).empty();
+        for (var r = r0; r <= r1; r++) {
+            for (var c = c0; c <= c1; c++) {
+                $('<img/>', {
+                    src: tile_server + "/" + depth + "/" + tileName(depth, r, c) + ".png",
+                    class: 'tile'
+                }).css({left: (c - c0) * TILE_SIZE, top: (r - r0) * TILE_SIZE})
+                  .on('dragstart', function(event) { event.preventDefault(); })
+                  .appendTo(tile_layer);
+            }
+        }
+        map.style.visibility = 'hidden';
+        tile_layer.style.visibility = 'visible';
+        setRaster(ROOT_ULLON + c0 * tile_lon, ROOT_ULLAT - r0 * tile_lat,
+                  ROOT_ULLON + (c1 + 1) * tile_lon, ROOT_ULLAT - (r1 + 1) * tile_lat,
+                  depth, (c1 - c0 + 1) * TILE_SIZE, (r1 - r0 + 1) * TILE_SIZE);
+    }
+
+    // QuadNode name of the tile in row r and column c at the given depth: one digit per level,
+    // 1 to 4 for top left, top right, bottom left and bottom right.
+    function tileName(depth, r, c) {
+        if (depth == 0) {
+            return "0";
+        }
+        var name = "";
+        for (var bit = depth - 1; bit >= 0; bit--) {
+            name += 1 + 2 * ((r >> bit) & 1) + ((c >> bit) & 1);
+        }
+        return name;
+    }
+
+    function setRaster(ul_lon, ul_lat, lr_lon, lr_lat, depth, w, h) {
+        ullon_bound = ul_lon;
+        ullat_bound = ul_lat;
+        lrlon_bound = lr_lon;
+        lrlat_bound = lr_lat;
+        current_level = depth;
+        img_w = w;
+        img_h = h;
+        wdpp = (lrlon_bound - ullon_bound) / img_w;
+        hdpp = (ullat_bound - lrlat_bound) / img_h;
+        // Compute initial transform
+        tx = - (params["ullon"] - ullon_bound) * (1 / wdpp);
+        ty = (params["ullat"] - ullat_bound) * (1 / hdpp);
+        rtx = (route_params["end_lon"] - params["ullon"]) * (1 / wdpp) - dest.width / 2 - tx;
+        rty = - (route_params["end_lat"] - params["ullat"]) * (1 / hdpp) - dest.height - ty;
+        updateMarkers();
+        updateRouteLayer();
+    }
+
+    function withSession(data) {
+        if (route_session) {
+            data.session = route_session;
+        }
+        return data;
+    }
+
+    function updateRouteLayer() {
+        var depth = current_level;
+        if (route_overlays[depth]) {
+            drawRoute(route_overlays[depth]);
+            return;
+        }
+        $.get({
+            async: true,
+            url: route_overlay_server,
+            data: withSession({depth: depth}),
+            success: function(data) {
+                route_overlays[depth] = data.points;
+                if (depth == current_level) {
+                    drawRoute(data.points);
+                }
+            },
+            dataType: "json"
+        });
+    }
+
+    // Draws a route overlay, given in pixels of the whole map at the current depth, relative
+    // to the upper left corner of the current raster.
+    function drawRoute(points) {
+        var map_px = TILE_SIZE * Math.pow(2, current_level);
+        var origin_x = (ullon_bound - ROOT_ULLON) / (ROOT_LRLON - ROOT_ULLON) * map_px;
+        var origin_y = (ROOT_ULLAT - ullat_bound) / (ROOT_ULLAT - ROOT_LRLAT) * map_px;
+        var coords = [];
+        for (var i = 0; i < points.length; i += 2) {
+            coords.push((points[i] - origin_x).toFixed(1) + "," +
+                        (points[i + 1] - origin_y).toFixed(1));
+        }
+        route_layer.setAttribute("width", img_w);
+        route_layer.setAttribute("height", img_h);
+        route_layer.firstElementChild.setAttribute("points", coords.join(" "));
+    }
+
     function updateT() {
         map.style.transform = "translateX(" + tx + "px) translateY(" + ty + "px)";
+        tile_layer.style.transform = map.style.transform;
+        route_layer.style.transform = map.style.transform;
         dest.style.transform = "translateX(" + (tx+rtx) + "px) translateY(" + (ty+rty) + "px)";
         for (var i = 0; i < markers.length; i++) {
             marker = markers[i];
@@ -317,8 +468,10 @@ $( document ).ready(function() {
         $.get({
             async: true,
             url: route_server,
-            data: route_params,
-            success: function(data) {
+            data: withSession($.extend({}, route_params)),
+            success: function(data, status, xhr) {
+                route_session = xhr.getResponseHeader("X-Route-Session") || route_session;
+                route_overlays = {};
                 updateImg();
             },
         });
@@ -0,0 +1,65 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks KdTree against a linear scan on graphs full of repeated coordinates, the layout of
+ * nodes along straight streets that used to drive the median selection quadratic.
+ */
+public class KdTreeTest {
+
+    private static final long SEED = 61;
+    private static final int QUERIES = 500;
+
+    @Test
+    public void findsTheNearestAmongRepeatedCoordinates() {
+        Random random = new Random(SEED);
+        /* A few streets per axis, so most nodes share a longitude or a latitude with others. */
+        CompactGraph graph = graph(5000, random, 7, 11);
+        KdTree tree = new KdTree(graph);
+        for (int q = 0; q < QUERIES; q++) {
+            double lat = 37.8 + random.nextDouble() * 0.1;
+            double lon = -122.3 + random.nextDouble() * 0.1;
+            int nearest = tree.nearest(lat, lon);
+            assertEquals("query " + q, graph.distanceTo(scan(graph, lat, lon), lat, lon),
+                    graph.distanceTo(nearest, lat, lon), 0.0);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void buildsOverIdenticalCoordinates() {
+        CompactGraph graph = graph(200000, new Random(SEED), 1, 1);
+        KdTree tree = new KdTree(graph);
+        assertEquals(graph.size(), tree.size());
+        assertEquals(graph.distanceTo(0, 37.8, -122.3),
+                graph.distanceTo(tree.nearest(37.8, -122.3), 37.8, -122.3), 0.0);
+    }
+
+    /**
+     * A graph of n unconnected nodes whose latitudes and longitudes are each drawn from a
+     * handful of evenly spaced values.
+     */
+    private static CompactGraph graph(int n, Random random, int latValues, int lonValues) {
+        long[] ids = new long[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            lats[i] = 37.8 + 0.1 * random.nextInt(latValues) / latValues;
+            lons[i] = -122.3 + 0.1 * random.nextInt(lonValues) / lonValues;
+        }
+        return new CompactGraph(ids, lats, lons, new int[n + 1], new int[0]);
+    }
+
+    private static int scan(CompactGraph graph, double lat, double lon) {
+        int best = 0;
+        for (int v = 1; v < graph.size(); v++) {
+            if (graph.distanceTo(v, lat, lon) < graph.distanceTo(best, lat, lon)) {
+                best = v;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that LiveGraph publishes the map with a change applied, leaving the versions it
+ * replaced untouched, and that a watched directory holding a change file that cannot be read
+ * shows up in the failure and pending counts until the file is fixed.
+ */
+public class LiveGraphTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void publishesAppliedChange() throws Exception {
+        File osm = OsmReaderTest.fixture(OsmReaderTest.ORIGINAL);
+        LiveGraph live = new LiveGraph(osm.getPath(), new GraphDB(osm.getPath(), false), 0);
+        try {
+            LiveGraph.Version original = live.current();
+            long fingerprint = original.db().getGraph().fingerprint();
+            LiveGraph.Version changed =
+                    live.apply(OsmReaderTest.fixture(OsmReaderTest.CHANGE)).get();
+            assertEquals(1, changed.number());
+            assertSame(changed, live.current());
+            assertSameMap("applied", changedMap(), changed.db());
+            assertEquals("original graph", fingerprint, original.db().getGraph().fingerprint());
+            assertEquals(0, live.failures());
+            assertTrue(live.lastAppliedMillis() > 0);
+        } finally {
+            live.close();
+        }
+    }
+
+    @Test
+    public void countsChangesHeldUpByABadFile() throws Exception {
+        File osm = OsmReaderTest.fixture(OsmReaderTest.ORIGINAL);
+        Path directory = Files.createTempDirectory("osm-changes");
+        File bad = directory.resolve("001.osc").toFile();
+        File good = directory.resolve("002.osc").toFile();
+        Files.write(bad.toPath(), "<osmChange version=\"0.6\"><modify>".getBytes(
+                StandardCharsets.UTF_8));
+        Files.copy(OsmReaderTest.fixture(OsmReaderTest.CHANGE).toPath(), good.toPath());
+        LiveGraph live = new LiveGraph(osm.getPath(), new GraphDB(osm.getPath(), false), 0);
+        try {
+            live.watch(directory.toFile(), 10, TimeUnit.MILLISECONDS);
+            await(() -> live.failures() >= 2);
+            assertEquals(2, live.pendingChanges());
+            assertEquals(0, live.current().number());
+            assertEquals(0, live.lastAppliedMillis());
+
+            Files.write(bad.toPath(), "<osmChange version=\"0.6\"/>".getBytes(
+                    StandardCharsets.UTF_8));
+            await(() -> live.pendingChanges() == 0);
+            assertEquals(2, live.current().number());
+            assertSameMap("applied", changedMap(), live.current().db());
+        } finally {
+            live.close();
+            delete(bad, good, directory.toFile());
+        }
+    }
+
+    /**
+     * The original fixture with the change made by hand, read with the SAX MapDBHandler.
+     */
+    private static GraphDB changedMap() throws URISyntaxException {
+        return OsmReaderTest.readSax(OsmReaderTest.fixture(OsmReaderTest.CHANGED));
+    }
+
+    private static void assertSameMap(String message, GraphDB expected, GraphDB db) {
+        OsmReaderTest.assertSameMap(message, expected.getGraph(), expected.getLocations(),
+                db.getGraph(), db.getLocations());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the change directory to be polled");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void delete(File... files) throws IOException {
+        for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
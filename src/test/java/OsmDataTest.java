@@ -0,0 +1,49 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Checks that applying an OSM change to the data OsmReader read gives the map the SAX
+ * MapDBHandler reads from the file with the change made by hand, however the original file
+ * was read: in one pass with block boundaries inside its comments and CDATA sections, or in
+ * parts.
+ */
+public class OsmDataTest {
+
+    private static final String[] OPENINGS = {"<!--", "<![CDATA["};
+    private static final int MAX_PARTS = 16;
+
+    @Test
+    public void appliesChangeToDataReadAcrossBlockBoundaries() throws Exception {
+        File osm = OsmReaderTest.fixture(OsmReaderTest.ORIGINAL);
+        OsmChange change = OsmChange.read(OsmReaderTest.fixture(OsmReaderTest.CHANGE));
+        GraphDB expected = OsmReaderTest.readSax(OsmReaderTest.fixture(OsmReaderTest.CHANGED));
+        String text = new String(Files.readAllBytes(osm.toPath()), StandardCharsets.UTF_8);
+        for (String opening : OPENINGS) {
+            for (int at = text.indexOf(opening); at >= 0; at = text.indexOf(opening, at + 1)) {
+                for (int cut = 1; cut < opening.length(); cut++) {
+                    assertApplied(opening + " at " + at + " cut after " + cut, expected,
+                            OsmReader.read(osm, 1, at + cut).data().apply(change));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void appliesChangeToDataReadInParts() throws Exception {
+        File osm = OsmReaderTest.fixture(OsmReaderTest.ORIGINAL);
+        OsmChange change = OsmChange.read(OsmReaderTest.fixture(OsmReaderTest.CHANGE));
+        GraphDB expected = OsmReaderTest.readSax(OsmReaderTest.fixture(OsmReaderTest.CHANGED));
+        for (int parts = 1; parts <= MAX_PARTS; parts++) {
+            assertApplied(parts + " parts", expected,
+                    OsmReader.read(osm, parts).data().apply(change));
+        }
+    }
+
+    private static void assertApplied(String message, GraphDB expected, OsmData data) {
+        OsmReaderTest.assertSameMap(message, expected.getGraph(), expected.getLocations(),
+                data.graph(), data.locations());
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that OsmReader reads the same graph and locations as the SAX MapDBHandler, in one
+ * pass and in parts, with block and part boundaries falling inside comments, CDATA sections
+ * and processing instructions. The fixtures hide node and way elements inside those, which
+ * only a reader that skips them correctly leaves out.
+ */
+public class OsmReaderTest {
+
+    /* Comments, CDATA sections and processing instructions between real elements. */
+    private static final String DECLARATIONS = "declarations.osm";
+    /* A file that is mostly one comment full of start tags. */
+    private static final String COMMENT_CUT = "comment-cut.osm";
+    /* An OSM change to the declarations fixture, and that fixture with the change made by hand. */
+    static final String ORIGINAL = DECLARATIONS;
+    static final String CHANGE = "declarations.osc";
+    static final String CHANGED = "declarations-changed.osm";
+    private static final String[] OPENINGS = {"<!--", "<![CDATA[", "<?"};
+    private static final int MAX_PARTS = 16;
+
+    @Test
+    public void readsDeclarationsStraddlingABlockBoundary() throws Exception {
+        for (String name : new String[] {DECLARATIONS, COMMENT_CUT}) {
+            File osm = fixture(name);
+            GraphDB expected = readSax(osm);
+            String text = new String(Files.readAllBytes(osm.toPath()), StandardCharsets.UTF_8);
+            for (String opening : OPENINGS) {
+                for (int at = text.indexOf(opening); at >= 0; at = text.indexOf(opening, at + 1)) {
+                    /* The first block ends after 1 to opening.length() - 1 bytes of it. */
+                    for (int cut = 1; cut < opening.length(); cut++) {
+                        assertSameMap(name + " with " + opening + " at " + at + " cut after "
+                                + cut, expected, OsmReader.read(osm, 1, at + cut));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsInOnePassAtEveryBlockSize() throws Exception {
+        File osm = fixture(DECLARATIONS);
+        GraphDB expected = readSax(osm);
+        for (int blockBytes = 1; blockBytes <= osm.length(); blockBytes++) {
+            assertSameMap(DECLARATIONS + " in blocks of " + blockBytes, expected,
+                    OsmReader.read(osm, 1, blockBytes));
+        }
+    }
+
+    @Test
+    public void readsInParts() throws Exception {
+        for (String name : new String[] {DECLARATIONS, COMMENT_CUT}) {
+            File osm = fixture(name);
+            GraphDB expected = readSax(osm);
+            assertSameMap(name + " in one pass", expected, OsmReader.read(osm));
+            for (int parts = 1; parts <= MAX_PARTS; parts++) {
+                assertSameMap(name + " in " + parts + " parts", expected,
+                        OsmReader.read(osm, parts));
+                assertSameMap(name + " in " + parts + " parts of small blocks", expected,
+                        OsmReader.read(osm, parts, 64));
+            }
+        }
+    }
+
+    @Test
+    public void fallsBackWhenACutLandsInAComment() throws Exception {
+        File osm = fixture(COMMENT_CUT);
+        String text = new String(Files.readAllBytes(osm.toPath()), StandardCharsets.UTF_8);
+        /* Halving the file cuts it at the first start tag after the middle, inside the comment. */
+        long middle = osm.length() / 2;
+        assertTrue("the fixture's comment spans its middle",
+                text.indexOf("<!--") < middle && text.indexOf("-->") > middle);
+        assertSameMap(COMMENT_CUT + " in 2 parts", readSax(osm), OsmReader.read(osm, 2));
+    }
+
+    static File fixture(String name) throws URISyntaxException {
+        return new File(OsmReaderTest.class.getResource("/" + name).toURI());
+    }
+
+    /**
+     * Reads the file with the SAX MapDBHandler, the reference implementation.
+     */
+    static GraphDB readSax(File osm) {
+        String previous = System.getProperty(GraphDB.PARSER_PROPERTY);
+        System.setProperty(GraphDB.PARSER_PROPERTY, "sax");
+        try {
+            return new GraphDB(osm.getPath(), false);
+        } finally {
+            if (previous == null) {
+                System.clearProperty(GraphDB.PARSER_PROPERTY);
+            } else {
+                System.setProperty(GraphDB.PARSER_PROPERTY, previous);
+            }
+        }
+    }
+
+    private static void assertSameMap(String message, GraphDB expected, OsmReader actual) {
+        assertSameMap(message, expected.getGraph(), expected.getLocations(), actual.graph(),
+                actual.locations());
+    }
+
+    static void assertSameMap(String message, CompactGraph expectedGraph,
+                              Locations expectedLocations, CompactGraph graph,
+                              Locations locations) {
+        assertEquals(message + ": nodes", expectedGraph.size(), graph.size());
+        assertEquals(message + ": edges", expectedGraph.edgeCount(), graph.edgeCount());
+        assertEquals(message + ": graph", expectedGraph.fingerprint(), graph.fingerprint());
+        assertEquals(message + ": locations", expectedLocations.size(), locations.size());
+        for (int i = 0; i < locations.size(); i++) {
+            assertEquals(message + ": location id", expectedLocations.id(i), locations.id(i));
+            assertEquals(message + ": location lat", expectedLocations.lat(i), locations.lat(i),
+                    0.0);
+            assertEquals(message + ": location lon", expectedLocations.lon(i), locations.lon(i),
+                    0.0);
+            assertEquals(message + ": location name", expectedLocations.name(i),
+                    locations.name(i));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the search indexes behind /search on the declarations fixture, including the missing
+ * term the endpoint passes on when no term parameter is given.
+ */
+public class SearchTest {
+
+    private static final int LIMIT = 10;
+
+    private static GraphDB db;
+
+    @BeforeClass
+    public static void readFixture() throws Exception {
+        db = OsmReaderTest.readSax(OsmReaderTest.fixture(OsmReaderTest.ORIGINAL));
+    }
+
+    @Test
+    public void completesAPrefix() {
+        assertEquals("[Cafe Strada]", db.getPrefixIndex().complete("caf", LIMIT).toString());
+    }
+
+    @Test
+    public void completesNothingForAMissingTerm() {
+        assertTrue(db.getPrefixIndex().complete(null, LIMIT).isEmpty());
+    }
+
+    @Test
+    public void findsEveryLocationWithAName() {
+        assertEquals(2, db.getNameIndex().find("tom & jerry's").size());
+    }
+
+    @Test
+    public void findsNothingForAMissingTerm() {
+        assertTrue(db.getNameIndex().find(null).isEmpty());
+    }
+
+    @Test
+    public void matchesWithinAFewTypos() {
+        assertEquals("[Cafe Strada]",
+                db.getPrefixIndex().fuzzy("cafe strata", 1, LIMIT).toString());
+    }
+
+    @Test
+    public void matchesNothingFuzzilyForAMissingTerm() {
+        assertTrue(db.getPrefixIndex().fuzzy(null, 1, LIMIT).isEmpty());
+    }
+}